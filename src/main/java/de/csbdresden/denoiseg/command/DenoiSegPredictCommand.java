@@ -52,17 +52,26 @@ public class DenoiSegPredictCommand<T extends RealType<T> & NativeType<T>> exten
 	@Parameter(type = ItemIO.OUTPUT)
 	private Dataset segmented;
 
+	@Parameter(label = "TensorFlow threads per operation (0 = automatic)", min = "0")
+	private int intraOpThreads = 0;
+
+	@Parameter(label = "TensorFlow operations in parallel (0 = automatic)", min = "0")
+	private int interOpThreads = 0;
+
 	@Parameter
 	private DatasetService datasetService;
 
 	@Override
 	protected DenoiSegPrediction createPrediction() {
 		try {
+			DenoiSegPrediction prediction;
 			if(getArchive().getSpecification().getFormatVersion().compareTo("0.3.0") < 0) {
-				return new DeprecatedDenoiSegPrediction(getContext());
+				prediction = new DeprecatedDenoiSegPrediction(getContext());
 			} else {
-				return new DenoiSegPrediction(getContext());
+				prediction = new DenoiSegPrediction(getContext());
 			}
+			prediction.configureSessionThreads(intraOpThreads, interOpThreads);
+			return prediction;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -97,6 +97,18 @@ public class DenoiSegTrainCommand implements Command, Cancelable {
 	@Parameter(label = "Neighborhood radius")
 	private int neighborhoodRadius = 5;
 
+	@Parameter(required = false, visibility = ItemVisibility.MESSAGE)
+	private String threadsLabel = "<html><br/><span style='font-weight: normal'>TensorFlow threads (0 = automatic)</span></html>";
+
+	@Parameter(label = "Threads per operation", min = "0")
+	private int intraOpThreads = 0;
+
+	@Parameter(label = "Operations in parallel", min = "0")
+	private int interOpThreads = 0;
+
+	@Parameter(label = "CPUs to run on (e.g. 0-7, empty = all)", required = false)
+	private String cpuAffinity = "";
+
 	@Parameter(type = ItemIO.OUTPUT, label = "Model from last training step")
 	protected ModelZooArchive latestTrainedModel;
 
@@ -144,7 +156,10 @@ public class DenoiSegTrainCommand implements Command, Cancelable {
 				.setStepsPerEpoch(numStepsPerEpoch)
 				.setBatchSize(batchSize)
 				.setPatchShape(patchShape)
-				.setNeighborhoodRadius(neighborhoodRadius));
+				.setNeighborhoodRadius(neighborhoodRadius)
+				.setIntraOpThreads(intraOpThreads)
+				.setInterOpThreads(interOpThreads)
+				.setCpuAffinity(cpuAffinity == null || cpuAffinity.trim().isEmpty() ? null : cpuAffinity.trim()));
 		if(showPrediction && training.getDialog() != null) training.getDialog().addTask( "Prediction" );
 
 //		training.confirmInputMatching("training", trainingRawData, trainingLabelingData);
@@ -28,6 +28,7 @@
  */
 package de.csbdresden.denoiseg.predict;
 
+import de.csbdresden.denoiseg.train.TensorFlowThreads;
 import net.imagej.modelzoo.ModelZooArchive;
 import net.imagej.modelzoo.consumer.AbstractModelZooPrediction;
 import net.imagej.modelzoo.consumer.SingleImagePrediction;
@@ -75,6 +76,19 @@ public class DenoiSegPrediction extends AbstractModelZooPrediction<ImageInput<?>
 		return false;
 	}
 
+	/**
+	 * Sizes TensorFlow's thread pools for the prediction session, which is
+	 * created by the model zoo without options. Has to be called before the
+	 * first TensorFlow session of the process is created, see
+	 * {@link TensorFlowThreads#configureProcess(int, int)}.
+	 *
+	 * @param intraOp threads used within an operation, {@code 0} lets TensorFlow decide
+	 * @param interOp operations run in parallel, {@code 0} lets TensorFlow decide
+	 */
+	public void configureSessionThreads(int intraOp, int interOp) {
+		TensorFlowThreads.configureProcess(intraOp, interOp);
+	}
+
 	public <T extends RealType<T> & NativeType<T>> DenoiSegOutput<?, ?> predict(RandomAccessibleInterval<T> input, String axes) throws Exception {
 		String inputName = getTrainedModel().getSpecification().getInputs().get(0).getName();
 		setInput(new ImageInput<>(inputName, input, axes));
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+import org.tensorflow.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Reusable direct buffers for assembling one batch, laid out like the
+ * TensorFlow tensors ({@code byxc} / {@code bzyxc}). Patches prepared in
+ * {@link PatchBuffers} can be added from several threads at once.
+ */
+class BatchBuffers {
+
+	static final int inputChannels = 1;
+	static final int denoiseChannels = 2;
+	static final int segmentChannels = 3;
+
+	private final int patchSize;
+	private final long[] tensorPatchShape;
+
+	private final FloatBuffer inputBuffer;
+	private final FloatBuffer outDenoiseBuffer;
+	private final FloatBuffer outSegmentBuffer;
+
+	BatchBuffers(Dimensions patchShape, int batchSize) {
+		int n = patchShape.numDimensions();
+		tensorPatchShape = new long[n];
+		int size = 1;
+		for (int d = 0; d < n; d++) {
+			tensorPatchShape[n - 1 - d] = patchShape.dimension(d);
+			size *= patchShape.dimension(d);
+		}
+		patchSize = size;
+		inputBuffer = allocate(batchSize * patchSize * inputChannels);
+		outDenoiseBuffer = allocate(batchSize * patchSize * denoiseChannels);
+		outSegmentBuffer = allocate(batchSize * patchSize * segmentChannels);
+	}
+
+	private static FloatBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Copies {@code patch} to position {@code index} of the batch.
+	 */
+	void setPatch(int index, PatchBuffers patch) {
+		put(inputBuffer, index, patch.input);
+		put(outDenoiseBuffer, index, patch.outDenoise);
+		put(outSegmentBuffer, index, patch.outSegment);
+	}
+
+	private static void put(FloatBuffer buffer, int index, float[] patch) {
+		FloatBuffer target = buffer.duplicate();
+		target.clear();
+		target.position(index * patch.length);
+		target.put(patch);
+	}
+
+	/**
+	 * Creates the tensors from the first {@code numPatches} patches. The
+	 * tensors hold a copy of the data, the buffers can be reused right away.
+	 */
+	TrainingBatch toBatch(int numPatches) {
+		return new TrainingBatch(numPatches,
+				Tensor.create(tensorShape(numPatches, inputChannels), slice(inputBuffer, numPatches * patchSize * inputChannels)),
+				Tensor.create(tensorShape(numPatches, denoiseChannels), slice(outDenoiseBuffer, numPatches * patchSize * denoiseChannels)),
+				Tensor.create(tensorShape(numPatches, segmentChannels), slice(outSegmentBuffer, numPatches * patchSize * segmentChannels)));
+	}
+
+	private static FloatBuffer slice(FloatBuffer buffer, int length) {
+		buffer.clear();
+		buffer.limit(length);
+		return buffer;
+	}
+
+	private long[] tensorShape(int numPatches, int numChannels) {
+		long[] res = new long[tensorPatchShape.length + 2];
+		res[0] = numPatches;
+		System.arraycopy(tensorPatchShape, 0, res, 1, tensorPatchShape.length);
+		res[res.length - 1] = numChannels;
+		return res;
+	}
+}
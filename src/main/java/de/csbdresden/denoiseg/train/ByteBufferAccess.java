@@ -28,9 +28,42 @@
  */
 package de.csbdresden.denoiseg.train;
 
-import net.imglib2.type.numeric.RealType;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Fraction;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
-public class ProcessedTrainingDataCollection<T extends RealType<T>> extends ArrayList<ProcessedTrainingData<T>> {
+/**
+ * {@link ByteAccess} backed by a {@link ByteBuffer}, used for labels kept in
+ * a {@link TileStore}.
+ */
+class ByteBufferAccess implements ByteAccess {
+
+	private final ByteBuffer buffer;
+
+	ByteBufferAccess(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public byte getValue(int index) {
+		return buffer.get(index);
+	}
+
+	@Override
+	public void setValue(int index, byte value) {
+		buffer.put(index, value);
+	}
+
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	static ArrayImg<UnsignedByteType, ByteBufferAccess> unsignedBytes(ByteBufferAccess access, long... dimensions) {
+		ArrayImg<UnsignedByteType, ByteBufferAccess> img = new ArrayImg<>(access, dimensions, new Fraction());
+		img.setLinkedType(new UnsignedByteType(img));
+		return img;
+	}
 }
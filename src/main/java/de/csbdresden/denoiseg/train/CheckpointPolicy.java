@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides after which epochs a checkpoint is saved and how many saved
+ * checkpoints are kept, see {@link DenoiSegConfig#setCheckpointInterval(int)},
+ * {@link DenoiSegConfig#setCheckpointBestOnly(boolean)} and
+ * {@link DenoiSegConfig#setKeepLastCheckpoints(int)}.
+ */
+class CheckpointPolicy {
+
+	private final int interval;
+	private final boolean bestOnly;
+	private final int keepLast;
+
+	CheckpointPolicy(DenoiSegConfig config) {
+		this(config.getCheckpointInterval(), config.getCheckpointBestOnly(), config.getKeepLastCheckpoints());
+	}
+
+	CheckpointPolicy(int interval, boolean bestOnly, int keepLast) {
+		this.interval = Math.max(1, interval);
+		this.bestOnly = bestOnly;
+		this.keepLast = Math.max(0, keepLast);
+	}
+
+	/**
+	 * @param epoch zero based index of the finished epoch
+	 * @param best  whether the epoch improved the validation loss
+	 * @param last  whether training ends after this epoch
+	 */
+	boolean save(int epoch, boolean best, boolean last) {
+		if(best) return true;
+		if(bestOnly) return false;
+		return last || (epoch + 1) % interval == 0;
+	}
+
+	int getKeepLast() {
+		return keepLast;
+	}
+
+	/**
+	 * @param checkpoints names of the checkpoints in the history, which sort by epoch
+	 * @return the oldest checkpoints exceeding the number of kept checkpoints
+	 */
+	List<String> expired(String[] checkpoints) {
+		String[] sorted = checkpoints.clone();
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted).subList(0, Math.max(0, sorted.length - keepLast));
+	}
+}
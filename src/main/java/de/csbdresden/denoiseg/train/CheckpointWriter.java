@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Writes checkpoint snapshots to the model directories on a background
+ * thread so that training continues while the files are moved and copied.
+ * A snapshot is a directory with the variables of one checkpoint. If the
+ * writer falls behind, pending snapshots are coalesced: only the most
+ * recent one and the most recent best one are written, the others are
+ * deleted. {@link #flush()} waits until all submitted snapshots are written.
+ */
+class CheckpointWriter implements AutoCloseable {
+
+	interface Output {
+		/**
+		 * Makes {@code snapshot} the most recent model, the files of the snapshot may be moved.
+		 */
+		void install(File snapshot) throws IOException;
+
+		/**
+		 * Copies the most recent model to the best model.
+		 */
+		void copyBest() throws IOException;
+	}
+
+	private final Output output;
+	private final ExecutorService executor;
+	private File pendingLatest;
+	private File pendingBest;
+	private boolean writing = false;
+	private boolean closed = false;
+	private IOException failure;
+
+	CheckpointWriter(Output output) {
+		this.output = output;
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "denoiseg-checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Schedules writing {@code snapshot}, a snapshot submitted after {@link #close()} is written right away.
+	 *
+	 * @param best whether the snapshot also becomes the best model
+	 */
+	void submit(File snapshot, boolean best) throws IOException {
+		synchronized (this) {
+			if(!closed) {
+				File oldLatest = pendingLatest;
+				File oldBest = pendingBest;
+				if(best) pendingBest = snapshot;
+				pendingLatest = snapshot;
+				discard(oldLatest);
+				discard(oldBest);
+				if(!writing) {
+					writing = true;
+					executor.execute(this::writePending);
+				}
+				return;
+			}
+		}
+		write(snapshot, best ? snapshot : null);
+	}
+
+	/**
+	 * Waits until all submitted snapshots are written.
+	 *
+	 * @throws IOException if writing a snapshot failed since the last call
+	 */
+	synchronized void flush() throws IOException {
+		boolean interrupted = false;
+		while(writing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		IOException res = failure;
+		failure = null;
+		if(res != null) throw res;
+	}
+
+	/**
+	 * Writes the pending snapshots and stops the writer thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+		}
+		try {
+			flush();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void writePending() {
+		while(true) {
+			File latest;
+			File best;
+			synchronized (this) {
+				latest = pendingLatest;
+				best = pendingBest;
+				pendingLatest = null;
+				pendingBest = null;
+				if(latest == null) {
+					writing = false;
+					notifyAll();
+					return;
+				}
+			}
+			try {
+				write(latest, best);
+			} catch (IOException | UncheckedIOException e) {
+				synchronized (this) {
+					failure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+				}
+			}
+		}
+	}
+
+	private void write(File latest, File best) throws IOException {
+		try {
+			if(best != null && best != latest) {
+				output.install(best);
+				output.copyBest();
+			}
+			output.install(latest);
+			if(best == latest) output.copyBest();
+		} finally {
+			delete(latest);
+			if(best != null) delete(best);
+		}
+	}
+
+	private void discard(File snapshot) {
+		if(snapshot == null || snapshot == pendingLatest || snapshot == pendingBest) return;
+		try {
+			delete(snapshot);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	static void delete(File snapshot) throws IOException {
+		if(!snapshot.exists()) return;
+		try (Stream<Path> files = Files.walk(snapshot.toPath())) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> {
+				try {
+					Files.delete(file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+}
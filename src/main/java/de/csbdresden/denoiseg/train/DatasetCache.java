@@ -0,0 +1,246 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of preprocessed training data in a directory. The tiles loaded from
+ * one set of image files are kept as a {@link TileStore} file
+ * ({@code <key>.tiles}) with an index of the tiles per image
+ * ({@code <key>.index}), normalization statistics are kept in
+ * {@code <key>.stats}. The keys are hashes of everything the cached data
+ * depends on, a changed file results in a new key.
+ */
+class DatasetCache {
+
+	private static final int version = 1;
+
+	/**
+	 * Stored tiles of one image, {@code segments} is empty for images without labeling.
+	 */
+	static class ImageEntries {
+		final boolean labeled;
+		final List<TileStore.Entry> inputs = new ArrayList<>();
+		final List<TileStore.Entry> segments = new ArrayList<>();
+
+		ImageEntries(boolean labeled) {
+			this.labeled = labeled;
+		}
+	}
+
+	private final File directory;
+
+	DatasetCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param usage what the tiles are used for and how they are split, part of the key
+	 * @param files raw image files, the order does not matter
+	 */
+	String key(String usage, List<File> files, LabelingIndex labelings, DenoiSegConfig config) {
+		Hash hash = new Hash();
+		hash.add(version).add(usage)
+				.add(config.getTrainDimensions()).add(config.getTrainPatchShape())
+				.add(config.getTileStride()).add(config.getWholeImageSampling() ? 1 : 0)
+				.add(config.getLabelingPrefix()).add(config.getLabelingSuffix());
+		List<File> sorted = new ArrayList<>(files);
+		sorted.sort(null);
+		for (File file : sorted) {
+			hash.add(file);
+			File labeling = labelings.get(file);
+			if(labeling == null) hash.add("");
+			else hash.add(labeling);
+		}
+		return hash.toString();
+	}
+
+	String statisticsKey(List<String> datasetKeys, double fraction, Long seed) {
+		Hash hash = new Hash();
+		hash.add(version).add(fraction).add(String.valueOf(seed));
+		for (String key : datasetKeys) {
+			hash.add(key);
+		}
+		return hash.toString();
+	}
+
+	Path tilesFile(String key) {
+		return directory.toPath().resolve(key + ".tiles");
+	}
+
+	/**
+	 * @return the cached tiles per image or {@code null} if {@code key} is not cached
+	 */
+	List<ImageEntries> readIndex(String key) throws IOException {
+		Path file = directory.toPath().resolve(key + ".index");
+		if(!Files.exists(file) || !Files.exists(tilesFile(key))) return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != version) return null;
+			List<ImageEntries> res = new ArrayList<>();
+			int numImages = in.readInt();
+			for (int i = 0; i < numImages; i++) {
+				ImageEntries image = new ImageEntries(in.readBoolean());
+				int numTiles = in.readInt();
+				for (int j = 0; j < numTiles; j++) {
+					image.inputs.add(readEntry(in));
+					if(image.labeled) image.segments.add(readEntry(in));
+				}
+				res.add(image);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Closes {@code store}, which was created at the {@link #partFile(Path)} of {@link #tilesFile(String)},
+	 * moves the tiles file to its final location and stores the index. The index is written last so that
+	 * incomplete entries are never read. Tiles read from {@code store} stay readable.
+	 */
+	void writeIndex(String key, TileStore store, List<ImageEntries> images) throws IOException {
+		store.close();
+		Files.move(partFile(tilesFile(key)), tilesFile(key), StandardCopyOption.REPLACE_EXISTING);
+		Path file = directory.toPath().resolve(key + ".index");
+		Path part = partFile(file);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(part)))) {
+			out.writeInt(version);
+			out.writeInt(images.size());
+			for (ImageEntries image : images) {
+				out.writeBoolean(image.labeled);
+				out.writeInt(image.inputs.size());
+				for (int j = 0; j < image.inputs.size(); j++) {
+					writeEntry(out, image.inputs.get(j));
+					if(image.labeled) writeEntry(out, image.segments.get(j));
+				}
+			}
+		}
+		Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static Path partFile(Path file) {
+		return file.resolveSibling(file.getFileName() + ".part");
+	}
+
+	/**
+	 * @return the cached statistics or {@code null} if {@code key} is not cached
+	 */
+	NormalizationStatistics readStatistics(String key) throws IOException {
+		Path file = directory.toPath().resolve(key + ".stats");
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if(in.readInt() != version) return null;
+			return NormalizationStatistics.read(in);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	void writeStatistics(String key, NormalizationStatistics statistics) throws IOException {
+		Path file = directory.toPath().resolve(key + ".stats");
+		Path part = partFile(file);
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(part))) {
+			out.writeInt(version);
+			statistics.write(out);
+		}
+		Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static TileStore.Entry readEntry(DataInputStream in) throws IOException {
+		long offset = in.readLong();
+		long[] dims = new long[in.readInt()];
+		for (int d = 0; d < dims.length; d++) {
+			dims[d] = in.readLong();
+		}
+		return new TileStore.Entry(offset, dims);
+	}
+
+	private static void writeEntry(DataOutputStream out, TileStore.Entry entry) throws IOException {
+		out.writeLong(entry.offset);
+		out.writeInt(entry.dimensions.length);
+		for (long dim : entry.dimensions) {
+			out.writeLong(dim);
+		}
+	}
+
+	private static class Hash {
+		private final MessageDigest digest;
+
+		Hash() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		Hash add(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			add(bytes.length);
+			digest.update(bytes);
+			return this;
+		}
+
+		Hash add(long value) {
+			for (int i = 0; i < 8; i++) {
+				digest.update((byte) (value >>> (8 * i)));
+			}
+			return this;
+		}
+
+		Hash add(double value) {
+			return add(Double.doubleToLongBits(value));
+		}
+
+		Hash add(File file) {
+			return add(file.getAbsolutePath()).add(file.length()).add(file.lastModified());
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder res = new StringBuilder();
+			for (byte b : digest.digest()) {
+				res.append(String.format("%02x", b));
+			}
+			return res.toString();
+		}
+	}
+}
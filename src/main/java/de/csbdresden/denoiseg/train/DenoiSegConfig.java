@@ -28,7 +28,27 @@
  */
 package de.csbdresden.denoiseg.train;
 
+import java.io.File;
+
 public class DenoiSegConfig {
+
+	/**
+	 * Where the normalized training tiles are kept.
+	 */
+	public enum TileStorage {
+		/** normalize on every pixel access, no additional memory */
+		VIEW,
+		/** normalize once into float arrays on the Java heap, kept in addition to the source tiles */
+		HEAP,
+		/** normalize once into direct buffers outside of the Java heap, kept in addition to the source tiles */
+		OFF_HEAP,
+		/**
+		 * copy the tiles into a memory mapped file while loading and normalize while sampling patches,
+		 * the training data is not limited by the Java heap, see {@link #setTileStoreDirectory(File)}
+		 */
+		MAPPED
+	}
+
 	private int numEpochs = 300;
 	private int trainBatchSize = 180;
 	private int trainPatchShape = 60;
@@ -37,6 +57,35 @@ public class DenoiSegConfig {
 	private int trainDimensions = 2;
 	private float learningRate = 0.0004f;
 	private int networkDepth = 4;
+	private int prefetchQueueSize = 2;
+	private int prefetchThreads = 1;
+	private int threadBudget = Runtime.getRuntime().availableProcessors();
+	private int parallelism = 0;
+	private int loaderThreads = 0;
+	private Long seed = null;
+	private String labelingPrefix = "";
+	private String labelingSuffix = "";
+	private boolean augmentation = true;
+	private boolean validationAugmentation = true;
+	private double normalizationSampleFraction = 1;
+	private TileStorage tileStorage = TileStorage.VIEW;
+	private File tileStoreDirectory = new File(System.getProperty("java.io.tmpdir"));
+	private File cacheDirectory = null;
+	private boolean nativeSourceImages = false;
+	private int tileStride = 0;
+	private boolean wholeImageSampling = false;
+	private int checkpointInterval = 1;
+	private boolean checkpointBestOnly = false;
+	private int keepLastCheckpoints = 0;
+	private int validationInterval = 1;
+	private int validationBatches = 0;
+	private long validationTimeBudget = 0;
+	private int earlyStoppingPatience = 0;
+	private float earlyStoppingMinDelta = 0;
+	private boolean restoreBestWeights = false;
+	private int intraOpThreads = 0;
+	private int interOpThreads = 0;
+	private String cpuAffinity = null;
 
 	public DenoiSegConfig setStepsPerEpoch(final int steps) {
 		stepsPerEpoch = steps;
@@ -68,6 +117,256 @@ public class DenoiSegConfig {
 		return this;
 	}
 
+	/**
+	 * @param queueSize number of training batches prepared ahead of the current step, 0 disables prefetching
+	 */
+	public DenoiSegConfig setPrefetchQueueSize(int queueSize) {
+		this.prefetchQueueSize = queueSize;
+		return this;
+	}
+
+	/**
+	 * @param threads number of worker threads preparing prefetched training batches
+	 */
+	public DenoiSegConfig setPrefetchThreads(int threads) {
+		this.prefetchThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads number of CPU threads the training keeps busy at once, the defaults of
+	 *                {@link #getParallelism()}, {@link #getLoaderThreads()} and the TensorFlow intra-op pool
+	 *                are derived from it
+	 */
+	public DenoiSegConfig setThreadBudget(int threads) {
+		this.threadBudget = threads;
+		return this;
+	}
+
+	/**
+	 * @param parallelism number of threads sampling and masking the patches of one batch, {@code 0} derives it
+	 *                    from the thread budget
+	 */
+	public DenoiSegConfig setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * @param threads number of threads opening, converting and tiling training and validation images, {@code 0}
+	 *                derives it from the thread budget
+	 */
+	public DenoiSegConfig setLoaderThreads(int threads) {
+		this.loaderThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Labeling files are named like the raw image files, with {@code prefix} and {@code suffix}
+	 * added around the name without extension, e.g. {@code mask_img01_labels.tif} for {@code img01.tif}.
+	 */
+	public DenoiSegConfig setLabelingNamePattern(String prefix, String suffix) {
+		this.labelingPrefix = prefix;
+		this.labelingSuffix = suffix;
+		return this;
+	}
+
+	/**
+	 * @param seed makes shuffling, patch sampling and blind-spot masking reproducible, independent of the parallelism
+	 */
+	public DenoiSegConfig setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param augment rotate and flip each training patch randomly (only for patches which are square in XY)
+	 */
+	public DenoiSegConfig setAugmentation(boolean augment) {
+		this.augmentation = augment;
+		return this;
+	}
+
+	/**
+	 * @param augment validate on all eight rotations and flips of each validation patch (the default), multiplies the
+	 *                validation data held in memory by eight; {@code false} validates each patch once, which changes the
+	 *                validation loss compared to earlier versions
+	 */
+	public DenoiSegConfig setValidationAugmentation(boolean augment) {
+		this.validationAugmentation = augment;
+		return this;
+	}
+
+	/**
+	 * @param fraction fraction of the training pixels used to compute the normalization statistics, pixels are picked at random for values below one.
+	 *                 Must be in (0, 1].
+	 */
+	public DenoiSegConfig setNormalizationSampleFraction(double fraction) {
+		if(!(fraction > 0 && fraction <= 1)) {
+			throw new IllegalArgumentException("Normalization sample fraction must be in (0, 1]: " + fraction);
+		}
+		this.normalizationSampleFraction = fraction;
+		return this;
+	}
+
+	/**
+	 * @param storage where the normalized tiles are kept, {@link TileStorage#VIEW} by default
+	 */
+	public DenoiSegConfig setTileStorage(TileStorage storage) {
+		this.tileStorage = storage;
+		return this;
+	}
+
+	/**
+	 * @param directory where the tile file of {@link TileStorage#MAPPED} is created, needs space for the whole training data
+	 */
+	public DenoiSegConfig setTileStoreDirectory(File directory) {
+		this.tileStoreDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * @param directory keeps the tiles and normalization statistics of training and validation data loaded from files
+	 *                  for later runs on the same files, implies {@link TileStorage#MAPPED}; {@code null} disables caching.
+	 *                  Files which are split into training and validation data are only cached if a seed is set.
+	 */
+	public DenoiSegConfig setCacheDirectory(File directory) {
+		this.cacheDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * @param nativeSourceImages keep images loaded from files in their pixel type instead of copying them to float,
+	 *                           values are converted while tiling or sampling patches
+	 */
+	public DenoiSegConfig setNativeSourceImages(boolean nativeSourceImages) {
+		this.nativeSourceImages = nativeSourceImages;
+		return this;
+	}
+
+	/**
+	 * @param stride distance between neighbouring training tiles, tiles overlap if it is smaller than the tile size and
+	 *               the last tile in each dimension is aligned with the image border; {@code 0} places the tiles next to
+	 *               each other and drops the remainder at the border
+	 */
+	public DenoiSegConfig setTileStride(int stride) {
+		this.tileStride = stride;
+		return this;
+	}
+
+	/**
+	 * @param wholeImageSampling sample training patches from anywhere in the training images instead of tiling them,
+	 *                           each image is drawn from as often per epoch as the number of tiles it covers;
+	 *                           validation data and data split into training and validation is still tiled
+	 */
+	public DenoiSegConfig setWholeImageSampling(boolean wholeImageSampling) {
+		this.wholeImageSampling = wholeImageSampling;
+		return this;
+	}
+
+	/**
+	 * @param epochs save the most recent model every {@code epochs} epochs and after the last epoch, epochs improving
+	 *               the validation loss are always saved
+	 */
+	public DenoiSegConfig setCheckpointInterval(int epochs) {
+		this.checkpointInterval = epochs;
+		return this;
+	}
+
+	/**
+	 * @param bestOnly only save epochs improving the validation loss, the most recent model is then the best one
+	 */
+	public DenoiSegConfig setCheckpointBestOnly(boolean bestOnly) {
+		this.checkpointBestOnly = bestOnly;
+		return this;
+	}
+
+	/**
+	 * @param num number of saved checkpoints to keep next to the most recent model, {@code 0} keeps none
+	 */
+	public DenoiSegConfig setKeepLastCheckpoints(int num) {
+		this.keepLastCheckpoints = num;
+		return this;
+	}
+
+	/**
+	 * @param epochs validate every {@code epochs} epochs, after the first and after the last epoch
+	 */
+	public DenoiSegConfig setValidationInterval(int epochs) {
+		this.validationInterval = epochs;
+		return this;
+	}
+
+	/**
+	 * @param num number of validation batches, drawn once at random from all validation batches; {@code 0} uses all
+	 */
+	public DenoiSegConfig setValidationBatches(int num) {
+		this.validationBatches = num;
+		return this;
+	}
+
+	/**
+	 * @param millis stop validating an epoch after this many milliseconds, at least one batch is always validated;
+	 *               {@code 0} means no limit
+	 */
+	public DenoiSegConfig setValidationTimeBudget(long millis) {
+		this.validationTimeBudget = millis;
+		return this;
+	}
+
+	/**
+	 * @param patience stop training after this many validations without improving the validation loss,
+	 *                 {@code 0} disables early stopping, see {@link EarlyStopping}
+	 */
+	public DenoiSegConfig setEarlyStoppingPatience(int patience) {
+		this.earlyStoppingPatience = patience;
+		return this;
+	}
+
+	/**
+	 * @param minDelta minimum decrease of the validation loss counted as improvement by early stopping
+	 */
+	public DenoiSegConfig setEarlyStoppingMinDelta(float minDelta) {
+		this.earlyStoppingMinDelta = minDelta;
+		return this;
+	}
+
+	/**
+	 * @param restore make the best checkpoint the most recent model when training is stopped early
+	 */
+	public DenoiSegConfig setRestoreBestWeights(boolean restore) {
+		this.restoreBestWeights = restore;
+		return this;
+	}
+
+	/**
+	 * @param threads threads TensorFlow uses within one operation, {@code 0} uses the CPUs of
+	 *                {@link #setCpuAffinity(String)} or the thread budget minus the threads preparing
+	 *                prefetched batches, see {@link TensorFlowThreads}
+	 */
+	public DenoiSegConfig setIntraOpThreads(int threads) {
+		this.intraOpThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads number of operations TensorFlow runs in parallel, {@code 0} lets TensorFlow decide
+	 */
+	public DenoiSegConfig setInterOpThreads(int threads) {
+		this.interOpThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param cpuList CPUs the training is meant to run on, e.g. {@code 0-7}; sizes the intra-op pool if
+	 *                {@link #setIntraOpThreads(int)} is not set and is checked against the affinity of the process,
+	 *                which has to be set when starting it (e.g. with {@code taskset})
+	 */
+	public DenoiSegConfig setCpuAffinity(String cpuList) {
+		this.cpuAffinity = cpuList;
+		return this;
+	}
+
 	public int getTrainDimensions() {
 		return trainDimensions;
 	}
@@ -92,6 +391,143 @@ public class DenoiSegConfig {
 		return neighborhoodRadius;
 	}
 
+	public int getPrefetchQueueSize() {
+		return prefetchQueueSize;
+	}
+
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	public int getThreadBudget() {
+		return Math.max(1, threadBudget);
+	}
+
+	/**
+	 * @return number of threads preparing prefetched batches next to the TensorFlow session, {@code 0} if
+	 * prefetching is disabled
+	 */
+	public int getPrefetchWorkers() {
+		return prefetchQueueSize > 0 ? Math.max(prefetchThreads, 0) : 0;
+	}
+
+	/**
+	 * @return the configured parallelism or, by default, half of the thread budget while batches are
+	 * prefetched next to the TensorFlow session and the whole thread budget while they are prepared
+	 * between the steps
+	 */
+	public int getParallelism() {
+		if(parallelism > 0) return parallelism;
+		return getPrefetchWorkers() > 0 ? Math.max(1, getThreadBudget() / 2) : getThreadBudget();
+	}
+
+	/**
+	 * @return the configured number of loader threads or, by default, up to four threads of the thread budget
+	 */
+	public int getLoaderThreads() {
+		if(loaderThreads > 0) return loaderThreads;
+		return Math.min(4, getThreadBudget());
+	}
+
+	public String getLabelingPrefix() {
+		return labelingPrefix;
+	}
+
+	public String getLabelingSuffix() {
+		return labelingSuffix;
+	}
+
+	/**
+	 * @return the random seed or {@code null} if none was set
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+
+	public boolean getAugmentation() {
+		return augmentation;
+	}
+
+	public boolean getValidationAugmentation() {
+		return validationAugmentation;
+	}
+
+	public double getNormalizationSampleFraction() {
+		return normalizationSampleFraction;
+	}
+
+	public TileStorage getTileStorage() {
+		return cacheDirectory != null ? TileStorage.MAPPED : tileStorage;
+	}
+
+	public File getTileStoreDirectory() {
+		return tileStoreDirectory;
+	}
+
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public boolean getNativeSourceImages() {
+		return nativeSourceImages;
+	}
+
+	public int getTileStride() {
+		return tileStride;
+	}
+
+	public boolean getWholeImageSampling() {
+		return wholeImageSampling;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public boolean getCheckpointBestOnly() {
+		return checkpointBestOnly;
+	}
+
+	public int getKeepLastCheckpoints() {
+		return keepLastCheckpoints;
+	}
+
+	public int getValidationInterval() {
+		return validationInterval;
+	}
+
+	public int getValidationBatches() {
+		return validationBatches;
+	}
+
+	public long getValidationTimeBudget() {
+		return validationTimeBudget;
+	}
+
+	public int getEarlyStoppingPatience() {
+		return earlyStoppingPatience;
+	}
+
+	public float getEarlyStoppingMinDelta() {
+		return earlyStoppingMinDelta;
+	}
+
+	public boolean getRestoreBestWeights() {
+		return restoreBestWeights;
+	}
+
+	public int getIntraOpThreads() {
+		return intraOpThreads;
+	}
+
+	public int getInterOpThreads() {
+		return interOpThreads;
+	}
+
+	public String getCpuAffinity() {
+		return cpuAffinity;
+	}
+
 	public float getLearningRate() {
 		return learningRate;
 	}
@@ -28,16 +28,10 @@
  */
 package de.csbdresden.denoiseg.train;
 
-import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Pair;
-import net.imglib2.util.ValuePair;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 import org.scijava.log.Logger;
 
 import java.util.ArrayList;
@@ -46,257 +40,185 @@ import java.util.List;
 
 public class DenoiSegDataGenerator {
 
-	static <T extends RealType<T> & NativeType<T>> void augment(TrainingDataCollection<T> data) {
-		if(data.get(0).input.dimension(0) == data.get(0).input.dimension(1)) {
-			//share in XY
-			augmentBatches(data);
-		}
-//		Collections.shuffle(patches);
-//		for (int i = 0; i < x.size(); i++) {
-//			RandomAccessibleInterval<T> patch = x.get(i);
-//			RandomAccessibleInterval<T> rai = Views.addDimension(patch, 0, 0);
-//			rai = Views.addDimension(rai, 0, 0);
-//			tiles.set(i, N2VUtils.copy(Views.zeroMin(rai)));
-//			tiles.set(i, Views.zeroMin(rai));
-//		}
-	}
-
-	private static <T extends RealType<T>> TrainingDataCollection<T> extractBatches(
-			RandomAccessibleInterval<T> img,
-			RandomAccessibleInterval<T> labeling,
-			Interval shape) {
-		if(img.numDimensions() == shape.numDimensions()) return extractBatchesNoSlicing(img, labeling, shape);
-		TrainingDataCollection<T> res = new TrainingDataCollection<>();
-		for (int i = 0; i < img.dimension(shape.numDimensions()); i++) {
-			IntervalView<T> img1 = Views.hyperSlice(img, shape.numDimensions(), i);
-			IntervalView<T> labeling1 = Views.hyperSlice(labeling, shape.numDimensions(), i);
-			if(img1.numDimensions() == shape.numDimensions()) {
-				res.addAll(extractBatchesNoSlicing(img1, labeling1, shape));
-			} else {
-				for (int j = 0; j < img1.dimension(shape.numDimensions()); j++) {
-					IntervalView<T> img2 = Views.hyperSlice(img1, shape.numDimensions(), j);
-					IntervalView<T> labeling2 = Views.hyperSlice(labeling1, shape.numDimensions(), j);
-					if(img2.numDimensions() == shape.numDimensions()) {
-						res.addAll(extractBatchesNoSlicing(img2, labeling2, shape));
-					} else {
-						for (int k = 0; k < img2.dimension(shape.numDimensions()); k++) {
-							IntervalView<T> img3 = Views.hyperSlice(img2, shape.numDimensions(), k);
-							IntervalView<T> labeling3 = Views.hyperSlice(labeling2, shape.numDimensions(), k);
-							res.addAll(extractBatchesNoSlicing(img3, labeling3, shape));
-
-						}
-					}
-				}
+	/**
+	 * Index tables of the eight rotations and flips of a square
+	 * {@code size x size} plane, x fastest. Entry {@code [t][p]} is the
+	 * position pixel {@code p} is moved to by transform {@code t}, transform
+	 * {@code 0} is the identity.
+	 */
+	static int[][] dihedralIndices(int size) {
+		int[][] res = new int[8][size * size];
+		int max = size - 1;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				int p = x + y * size;
+				res[0][p] = x + y * size;
+				res[1][p] = (max - y) + x * size;
+				res[2][p] = (max - x) + (max - y) * size;
+				res[3][p] = y + (max - x) * size;
+				res[4][p] = (max - x) + y * size;
+				res[5][p] = y + x * size;
+				res[6][p] = x + (max - y) * size;
+				res[7][p] = (max - y) + (max - x) * size;
 			}
 		}
 		return res;
 	}
 
-	private static <T extends RealType<T>> List<RandomAccessibleInterval<T>> extractBatches(
-			RandomAccessibleInterval<T> img,
-			Interval shape) {
-		if(img.numDimensions() == shape.numDimensions()) return extractBatchesNoSlicing(img, shape);
-		List<RandomAccessibleInterval<T>> res = new ArrayList<>();
-		for (int i = 0; i < img.dimension(shape.numDimensions()); i++) {
-			IntervalView<T> img1 = Views.hyperSlice(img, shape.numDimensions(), i);
-			if(img1.numDimensions() == shape.numDimensions()) {
-				res.addAll(extractBatchesNoSlicing(img1, shape));
+	/**
+	 * Places tiles of {@code tileShape} along the first dimensions of
+	 * {@code img}, see {@link #tileOrigins(long, long, long)}, and repeats
+	 * them for every position in the remaining dimensions. The tiles are
+	 * ordered with x fastest, the remaining dimensions are iterated like nested
+	 * loops with the first of them outermost.
+	 *
+	 * @return the position of the first pixel of each tile in all dimensions of {@code img}
+	 */
+	static List<long[]> tileOffsets(Interval img, long[] tileShape, long stride) {
+		int numSpatial = tileShape.length;
+		int n = img.numDimensions();
+		// radix of each tile index digit, x first, the first non-spatial dimension last
+		long[][] origins = new long[n][];
+		long numTiles = 1;
+		for (int d = 0; d < n; d++) {
+			if(d < numSpatial) {
+				origins[d] = tileOrigins(img.dimension(d), tileShape[d], stride);
 			} else {
-				for (int j = 0; j < img1.dimension(shape.numDimensions()); j++) {
-					IntervalView<T> img2 = Views.hyperSlice(img1, shape.numDimensions(), j);
-					if(img2.numDimensions() == shape.numDimensions()) {
-						res.addAll(extractBatchesNoSlicing(img2, shape));
-					} else {
-						for (int k = 0; k < img2.dimension(shape.numDimensions()); k++) {
-							IntervalView<T> img3 = Views.hyperSlice(img2, shape.numDimensions(), k);
-							res.addAll(extractBatchesNoSlicing(img3, shape));
-
-						}
-					}
+				origins[d] = new long[(int) img.dimension(d)];
+				for (int i = 0; i < origins[d].length; i++) {
+					origins[d][i] = i;
 				}
 			}
+			numTiles *= origins[d].length;
+		}
+		int[] digitOrder = new int[n];
+		for (int d = 0; d < n; d++) {
+			digitOrder[d] = d < numSpatial ? d : n - 1 - (d - numSpatial);
+		}
+		List<long[]> res = new ArrayList<>();
+		for (long index = 0; index < numTiles; index++) {
+			long[] offset = new long[n];
+			long rest = index;
+			for (int digit = 0; digit < n; digit++) {
+				int d = digitOrder[digit];
+				offset[d] = img.min(d) + origins[d][(int) (rest % origins[d].length)];
+				rest /= origins[d].length;
+			}
+			res.add(offset);
 		}
 		return res;
 	}
 
-	private static <T extends RealType<T>> TrainingDataCollection<T> extractBatchesNoSlicing(
+	private static <T extends RealType<T>> TrainingDataCollection<T> extractTiles(
 			RandomAccessibleInterval<T> img,
 			RandomAccessibleInterval<T> labeling,
-			Interval shape) {
+			long[] tileShape, long stride) {
 		TrainingDataCollection<T> res = new TrainingDataCollection<>();
-		if(shapeTooBig(img, shape)) {
-			System.out.println("DenoiSegDataGenerator::extractPatchesNoSlicing: 'shape' is too big");
-			return res;
+		int channelDim = labeling.numDimensions() - 1;
+		for (long[] offset : tileOffsets(img, tileShape, stride)) {
+			long[] labelingOffset = new long[labeling.numDimensions()];
+			for (int d = 0; d < channelDim; d++) {
+				labelingOffset[d] = offset[d] - img.min(d) + labeling.min(d);
+			}
+			labelingOffset[channelDim] = labeling.min(channelDim);
+			long[] labelingShape = Arrays.copyOf(tileShape, tileShape.length + 1);
+			labelingShape[tileShape.length] = labeling.dimension(channelDim);
+			res.add(new TrainingData<>(new Tile<>(img, offset, tileShape, false), new Tile<>(labeling, labelingOffset, labelingShape, true)));
 		}
-		if(shape.numDimensions() == 2) extractBatches2D(img, labeling, shape, res);
-		else if(shape.numDimensions() == 3) extractBatches3D(img, labeling, shape, res);
 		return res;
 	}
 
-	private static <T extends RealType<T>> List<RandomAccessibleInterval<T>> extractBatchesNoSlicing(
+	private static <T extends RealType<T>> List<RandomAccessibleInterval<T>> extractTiles(
 			RandomAccessibleInterval<T> img,
-			Interval shape) {
+			long[] tileShape, long stride) {
 		List<RandomAccessibleInterval<T>> res = new ArrayList<>();
-		if(shapeTooBig(img, shape)) {
-			System.out.println("DenoiSegDataGenerator::extractPatchesNoSlicing: 'shape' is too big");
-			return res;
+		for (long[] offset : tileOffsets(img, tileShape, stride)) {
+			res.add(new Tile<>(img, offset, tileShape, false));
 		}
-		if(shape.numDimensions() == 2) extractBatches2D(img, shape, res);
-		else if(shape.numDimensions() == 3) extractBatches3D(img, shape, res);
 		return res;
 	}
 
-	private static <T extends RealType<T>> void extractBatches2D(
-			RandomAccessibleInterval<T> img,
-			RandomAccessibleInterval<T> labeling,
-			Interval shape,
-			TrainingDataCollection<T> res) {
-		for (int y = 0; y <= img.dimension(1) - shape.dimension(1); y+=shape.dimension(1)) {
-			for (int x = 0; x <= img.dimension(0) - shape.dimension(0); x+=shape.dimension(0)) {
-				long[] min = {x, y};
-				long[] minLabeling = {min[0], min[1], 0};
-				long[] max = {x + shape.dimension(0)-1, y + shape.dimension(1)-1};
-				long[] maxLabeling = {max[0], max[1], 2};
-//					System.out.println(res.size() + ": " + Arrays.toString(min) + " -> " + Arrays.toString(max));
-				IntervalView<T> n2vTile = Views.interval(img,
-						min,
-						max);
-				IntervalView<T> labelingTile = Views.interval(labeling,
-						minLabeling,
-						maxLabeling);
-				res.add(new TrainingData<>(Views.zeroMin(n2vTile), Views.zeroMin(labelingTile)));
-			}
-		}
-	}
-
-	private static <T extends RealType<T>> void extractBatches2D(
-			RandomAccessibleInterval<T> img,
-			Interval shape,
-			List<RandomAccessibleInterval<T>> res) {
-		for (int y = 0; y <= img.dimension(1) - shape.dimension(1); y+=shape.dimension(1)) {
-			for (int x = 0; x <= img.dimension(0) - shape.dimension(0); x+=shape.dimension(0)) {
-				long[] min = {x, y};
-				long[] max = {x + shape.dimension(0)-1, y + shape.dimension(1)-1};
-				long[] maxLabeling = {max[0], max[1], 2};
-//					System.out.println(res.size() + ": " + Arrays.toString(min) + " -> " + Arrays.toString(max));
-				IntervalView<T> n2vTile = Views.interval(img,
-						min,
-						max);
-				res.add(Views.zeroMin(n2vTile));
-			}
-		}
-	}
-
-	private static <T extends RealType<T>> void extractBatches3D(
-			RandomAccessibleInterval<T> img,
-			RandomAccessibleInterval<T> labeling,
-			Interval shape,
-			TrainingDataCollection<T> res) {
-		for (int z = 0; z <= img.dimension(2) - shape.dimension(2); z+=shape.dimension(2)) {
-			for (int y = 0; y <= img.dimension(1) - shape.dimension(1); y += shape.dimension(1)) {
-				for (int x = 0; x <= img.dimension(0) - shape.dimension(0); x += shape.dimension(0)) {
-					long[] min = {x, y, z};
-					long[] minLabeling = {min[0], min[1], min[2], 0};
-					long[] max = {x + shape.dimension(0) - 1, y + shape.dimension(1) - 1, z + shape.dimension(2) - 1};
-					long[] maxLabeling = {max[0], max[1], max[2], 2};
-//					System.out.println(res.size() + ": " + Arrays.toString(min) + " -> " + Arrays.toString(max));
-					IntervalView<T> n2vTile = Views.interval(img,
-							min,
-							max);
-					IntervalView<T> labelingTile = Views.interval(labeling,
-							minLabeling,
-							maxLabeling);
-					res.add(new TrainingData<>(Views.zeroMin(n2vTile), Views.zeroMin(labelingTile)));
-				}
-			}
-		}
-	}
-
-	private static <T extends RealType<T>> void extractBatches3D(
-			RandomAccessibleInterval<T> img,
-			Interval shape,
-			List<RandomAccessibleInterval<T>> res) {
-		for (int z = 0; z <= img.dimension(2) - shape.dimension(2); z+=shape.dimension(2)) {
-			for (int y = 0; y <= img.dimension(1) - shape.dimension(1); y += shape.dimension(1)) {
-				for (int x = 0; x <= img.dimension(0) - shape.dimension(0); x += shape.dimension(0)) {
-					long[] min = {x, y, z};
-					long[] max = {x + shape.dimension(0) - 1, y + shape.dimension(1) - 1, z + shape.dimension(2) - 1};
-//					System.out.println(res.size() + ": " + Arrays.toString(min) + " -> " + Arrays.toString(max));
-					IntervalView<T> n2vTile = Views.interval(img,
-							min,
-							max);
-					res.add(Views.zeroMin(n2vTile));
-				}
-			}
-		}
-	}
-
-	private static <T extends RealType<T>> boolean shapeTooBig(RandomAccessibleInterval<T> img, Interval shape) {
-		for (int i = 0; i < shape.numDimensions(); i++) {
-			if(shape.dimension(i) > img.dimension(i)) return true;
-		}
-		return false;
-	}
-
-	private static <T extends RealType<T>> void augmentBatches(TrainingDataCollection<T> patches) {
-		TrainingDataCollection<T> augmented = new TrainingDataCollection<>();
-		patches.forEach(patch -> {
-			IntervalView<T> r1A = Views.zeroMin(Views.rotate(patch.input, 0, 1));
-			IntervalView<T> r1B = Views.zeroMin(Views.rotate(patch.outSegment, 0, 1));
-			IntervalView<T> r2A = Views.zeroMin(Views.rotate(r1A, 0, 1));
-			IntervalView<T> r2B = Views.zeroMin(Views.rotate(r1B, 0, 1));
-			augmented.add(new TrainingData<>(r1A, r1B));
-			augmented.add(new TrainingData<>(r2A, r2B));
-			IntervalView<T> r3A = Views.zeroMin(Views.rotate(r2A, 0, 1));
-			IntervalView<T> r3B = Views.zeroMin(Views.rotate(r2B, 0, 1));
-			augmented.add(new TrainingData<>(r3A, r3B));
-		});
-		patches.addAll(augmented);
-		augmented.clear();
-		for (TrainingData<T> patch : patches) {
-			IntervalView<T> iA = Views.zeroMin(Views.invertAxis(patch.input, 0));
-			IntervalView<T> iB = Views.zeroMin(Views.invertAxis(patch.outSegment, 0));
-			augmented.add(new TrainingData<>(iA, iB));
+	/**
+	 * @param stride distance of neighbouring tiles, {@code 0} places the
+	 *               tiles next to each other and drops the remainder at the
+	 *               end, otherwise the last tile is aligned with the end of
+	 *               the image
+	 * @return the positions of the tiles along one dimension of length {@code size}
+	 */
+	static long[] tileOrigins(long size, long tileSize, long stride) {
+		if(tileSize > size) return new long[0];
+		long step = stride > 0 ? stride : tileSize;
+		int num = (int) ((size - tileSize) / step) + 1;
+		long last = (num - 1) * step;
+		boolean edge = stride > 0 && last + tileSize < size;
+		long[] res = new long[edge ? num + 1 : num];
+		for (int i = 0; i < num; i++) {
+			res[i] = i * step;
 		}
-		patches.addAll(augmented);
+		if(edge) res[num] = size - tileSize;
+		return res;
 	}
 
 	static TrainingDataCollection<FloatType> createTiles(
 			RandomAccessibleInterval< FloatType > inputRAI,
 			RandomAccessibleInterval<FloatType> labelingRAI,
-			int trainDimensions, long patchShape, Logger logger) {
+			int trainDimensions, long patchShape, long stride, Logger logger) {
 
 		long superPatchShape = getSmallestInputDim(inputRAI, trainDimensions);
 		superPatchShape = Math.min(superPatchShape, patchShape*2);
 
 		long[] batchShapeData = new long[trainDimensions];
 		Arrays.fill(batchShapeData, superPatchShape);
-		FinalInterval batchShape = new FinalInterval(batchShapeData);
-//		logger.info( "Creating tiles of size " + Arrays.toString(Intervals.dimensionsAsIntArray(batchShape)) + ".." );
+//		logger.info( "Creating tiles of size " + Arrays.toString(batchShapeData) + ".." );
 		//		long[] tiledim = new long[ tiles.get( 0 ).getA().numDimensions() ];
 //		tiles.get( 0 ).getA().dimensions( tiledim );
 //		logger.info( "Generated " + tiles.size() + " tiles of shape " + Arrays.toString( tiledim ) );
 //		RandomAccessibleInterval<FloatType> tilesStack = Views.stack(tiles);
 //		uiService.show("tiles", tilesStack);
-		return extractBatches(inputRAI, labelingRAI, batchShape);
+		return extractTiles(inputRAI, labelingRAI, batchShapeData, stride);
 	}
 
 	static List<RandomAccessibleInterval<FloatType>> createTiles(
 			RandomAccessibleInterval< FloatType > inputRAI,
-			int trainDimensions, long patchShape, Logger logger ) {
+			int trainDimensions, long patchShape, long stride, Logger logger ) {
 
 		long superPatchShape = getSmallestInputDim(inputRAI, trainDimensions);
 		superPatchShape = Math.min(superPatchShape, patchShape*2);
 		long[] batchShapeData = new long[trainDimensions];
 		Arrays.fill(batchShapeData, superPatchShape);
-		FinalInterval batchShape = new FinalInterval(batchShapeData);
-//		logger.info( "Creating tiles of size " + Arrays.toString(Intervals.dimensionsAsIntArray(batchShape)) + ".." );
+//		logger.info( "Creating tiles of size " + Arrays.toString(batchShapeData) + ".." );
 		//		long[] tiledim = new long[ tiles.get( 0 ).numDimensions() ];
 //		tiles.get( 0 ).dimensions( tiledim );
 //		logger.info( "Generated " + tiles.size() + " tiles of shape " + Arrays.toString( tiledim ) );
 //		RandomAccessibleInterval<FloatType> tilesStack = Views.stack(tiles);
 //		uiService.show("tiles", tilesStack);
-		return extractBatches(inputRAI, batchShape);
+		return extractTiles(inputRAI, batchShapeData, stride);
+	}
+
+	/**
+	 * Splits the input into whole images of {@code trainDimensions}
+	 * dimensions, one per position in the remaining dimensions. Patches are
+	 * sampled from anywhere in these images, see {@link DenoiSegDataWrapper}.
+	 */
+	static TrainingDataCollection<FloatType> createImages(
+			RandomAccessibleInterval<FloatType> inputRAI,
+			RandomAccessibleInterval<FloatType> labelingRAI,
+			int trainDimensions) {
+		return extractTiles(inputRAI, labelingRAI, imageShape(inputRAI, trainDimensions), 0);
+	}
+
+	static List<RandomAccessibleInterval<FloatType>> createImages(
+			RandomAccessibleInterval<FloatType> inputRAI,
+			int trainDimensions) {
+		return extractTiles(inputRAI, imageShape(inputRAI, trainDimensions), 0);
+	}
+
+	private static long[] imageShape(RandomAccessibleInterval<FloatType> img, int trainDimensions) {
+		long[] dims = new long[trainDimensions];
+		for (int d = 0; d < trainDimensions; d++) {
+			dims[d] = img.dimension(d);
+		}
+		return dims;
 	}
 
 	private static long getSmallestInputDim(RandomAccessibleInterval<FloatType> img, int maxDimensions) {
@@ -28,43 +28,42 @@
  */
 package de.csbdresden.denoiseg.train;
 
-import net.imglib2.Cursor;
 import net.imglib2.Dimensions;
-import net.imglib2.FinalDimensions;
-import net.imglib2.FinalInterval;
-import net.imglib2.Point;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
-import net.imglib2.util.Pair;
-import net.imglib2.util.ValuePair;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
-public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
+public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> implements AutoCloseable {
 
-	private final TrainingDataCollection<T> XY;
+	private volatile TrainingDataCollection<T> XY;
 	private final int batchSize;
 	private final int batchDim;
 	private final Dimensions shape;
-	private final Dimensions range;
-	private final long numChannels;
 	private final long box_size;
-	private static int local_sub_patch_radius = 5;
-	private final ValueManipulatorConsumer<T> manipulator;
+	private final ValueManipulatorConsumer manipulator;
+	private SplittableRandom random = new SplittableRandom();
+	private final Queue<BatchBuffers> bufferPool = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<PatchBuffers> patchBuffers;
+	private ForkJoinPool pool;
+	// plane index tables of the available rotations and flips, the first one is the identity
+	private final int[][] transforms;
+	private boolean randomAugmentation = false;
+	private int augmentationFolds = 1;
 
 	public long size() {
-		return XY.size();
+		return XY.size() * augmentationFolds;
 	}
 
 	int numBatches() {
@@ -72,25 +71,25 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		else return (int)(size() / batchSize);
 	}
 
-	interface ValueManipulatorConsumer<U> {
-		double accept(IntervalView<U> patch, Point coord);
+	/**
+	 * Computes the replacement value of the blind-spot at {@code position}.
+	 * {@code patch} holds a single channel patch of size {@code dims}, x fastest.
+	 */
+	interface ValueManipulatorConsumer {
+		float accept(float[] patch, int[] dims, int[] position, SplittableRandom random);
 	}
 
-	private static <T> double value_manipulate(
-			ValueManipulatorConsumer<T> c, IntervalView<T> patch, Point coord) {
-		return c.accept(patch, coord);
-	}
-
-	DenoiSegDataWrapper(TrainingDataCollection<T> dataPairs, int batchSize, double perc_pix, Dimensions shape, int neighborhoodRadius, ValueManipulatorConsumer<T> manipulator) {
+	DenoiSegDataWrapper(TrainingDataCollection<T> dataPairs, int batchSize, double perc_pix, Dimensions shape, ValueManipulatorConsumer manipulator) {
 
 		XY = new TrainingDataCollection<>();
-		XY.addAll(dataPairs);
-		this.local_sub_patch_radius = neighborhoodRadius;
+		for (TrainingData<T> item : dataPairs) {
+			for (long i = numDraws(item.input, shape); i > 0; i--) {
+				XY.add(item);
+			}
+		}
 		this.batchSize = batchSize;
 		this.batchDim = shape.numDimensions();
 		this.shape = shape;
-		this.range = computeRange(dataPairs.get(0).input, shape);
-		this.numChannels = 1;
 
 		long multiplyShape = getMultiplyShape(shape);
 		int num_pix = (int) ((float)multiplyShape / 100. * perc_pix);
@@ -99,18 +98,30 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		System.out.println(num_pix + " blind-spots will be generated per training patch of size " + Arrays.toString(Intervals.dimensionsAsIntArray(shape)) + ".");
 
 //            self.patch_sampler = self.__subpatch_sampling2D__
-		this.box_size = Math.round(Math.sqrt(multiplyShape / (float)num_pix));
+		// edge length of the boxes with one blind-spot each, e.g. 8 for 1.6% of a 2D patch and 4 for 3D
+		this.box_size = Math.round(Math.pow(multiplyShape / (float)num_pix, 1. / shape.numDimensions()));
 //            self.get_stratified_coords = self.__get_stratified_coords2D__
 
 		this.manipulator = manipulator;
+		this.patchBuffers = ThreadLocal.withInitial(() -> new PatchBuffers(shape, box_size));
+		this.transforms = shape.dimension(0) == shape.dimension(1) ?
+				DenoiSegDataGenerator.dihedralIndices((int) shape.dimension(0)) :
+				new int[][] { IntStream.range(0, (int) (shape.dimension(0) * shape.dimension(1))).toArray() };
 	}
 
-	private static <T extends RealType<T> & NativeType<T>> FinalDimensions computeRange(RandomAccessibleInterval<T> firstX, Dimensions shape) {
-		long[] rangeDims = new long[shape.numDimensions()];
-		for (int i = 0; i < rangeDims.length; i++) {
-			rangeDims[i] = firstX.dimension(i) - shape.dimension(i);
+	/**
+	 * @return how many patches are drawn from {@code input} per epoch, the
+	 * number of tiles of twice the patch size covering it. This is one for
+	 * tiles and proportional to the area for whole images, so every patch
+	 * position of the training data is equally likely.
+	 */
+	private static <T extends RealType<T>> long numDraws(RandomAccessibleInterval<T> input, Dimensions shape) {
+		long res = 1;
+		for (int d = 0; d < shape.numDimensions(); d++) {
+			long tileSize = 2 * shape.dimension(d);
+			res *= (input.dimension(d) + tileSize - 1) / tileSize;
 		}
-		return new FinalDimensions(rangeDims);
+		return res;
 	}
 
 	private long getMultiplyShape(Dimensions shape) {
@@ -121,232 +132,153 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		return res;
 	}
 
-	void on_epoch_end() {
-		Collections.shuffle(XY);
+	/**
+	 * Makes shuffling, patch sampling and blind-spot manipulation reproducible.
+	 */
+	synchronized void setSeed(long seed) {
+		random = new SplittableRandom(seed);
 	}
 
-	ProcessedTrainingData<T> getItem(int i) {
-		int[] idx = new int[(int) Math.min(batchSize, size() - i*batchSize)];
-		for (int j = 0; j < idx.length; j++) {
-			idx[j] = i * batchSize + j;
-		}
-
-		ProcessedTrainingData<T> patches = subpatch_sampling(idx);
-
-		RandomAccessibleInterval<T> patchX = patches.input;
-		RandomAccessibleInterval<T> patchYDenoise = patches.outDenoise;
-//		uiService.show(patchY);
-
-		for (int j = 0; j < patchX.dimension(batchDim); j++) {
-//            for c in range(self.n_chan):
-			IntervalView<T> patchXSlice = Views.hyperSlice(patchX, batchDim, j);
-			IntervalView<T> patchYSlice = Views.hyperSlice(patchYDenoise, batchDim, j);
-			manipulateX(box_size, shape, patchXSlice, patchYSlice, numChannels, manipulator);
-		}
-		return patches;
+	/**
+	 * @param pool pool preparing the patches of one batch in parallel, the patches are prepared on the
+	 *             calling thread if null. The batches are the same for any number of threads.
+	 */
+	synchronized void setPool(ForkJoinPool pool) {
+		this.pool = pool;
 	}
 
-	static <T extends RealType<T> & NativeType<T>> void manipulateX(
-			long boxSize, Dimensions shape,
-			RandomAccessibleInterval<T> patchX,
-			RandomAccessibleInterval<T> patchY,
-			long n_chan, ValueManipulatorConsumer<T> manipulator) {
-		int c = 0;
-		List<Point> coords = null;
-		if(shape.numDimensions() == 2) coords = get_stratified_coords2D(boxSize, shape);
-		if(shape.numDimensions() == 3) coords = get_stratified_coords3D(boxSize, shape);
-
-		double[] x_val = new double[coords.size()];
-		double[] originalValue = new double[coords.size()];
-		RandomAccess<T> batchXRA = patchX.randomAccess();
-		RandomAccess<T> batchYRA = patchY.randomAccess();
-		for (int k = 0; k < coords.size(); k++) {
-
-			Point point = coords.get(k);
-			long[] oldPos = new long[shape.numDimensions()+1];
-			for (int i = 0; i < shape.numDimensions(); i++) {
-				oldPos[i] = point.getLongPosition(i);
-			}
-			oldPos[shape.numDimensions()] = c;
-
-			batchXRA.setPosition(oldPos);
-			originalValue[k] = batchXRA.get().getRealDouble();
-
-			IntervalView<T> XInterval = Views.hyperSlice(patchX, shape.numDimensions(), c);
-			XInterval = Views.addDimension(XInterval, 0, 0);
-			x_val[k] = value_manipulate(manipulator, XInterval, point);
-		}
-
-		for (int k = 0; k < originalValue.length; k++) {
+	/**
+	 * Applies a random rotation or flip to every sampled patch. Patches which
+	 * are not square in XY are never rotated or flipped.
+	 */
+	void setRandomAugmentation(boolean augment) {
+		this.randomAugmentation = augment;
+	}
 
-			Point point = coords.get(k);
-			long[] channel1Pos = new long[patchX.numDimensions()];
-			long[] channel2Pos = new long[patchX.numDimensions()];
-			for (int i = 0; i < point.numDimensions(); i++) {
-				channel1Pos[i] = point.getLongPosition(i);
-				channel2Pos[i] = point.getLongPosition(i);
-			}
-			channel1Pos[channel1Pos.length-1] = c;
-			channel2Pos[channel1Pos.length-1] = c+n_chan;
+	/**
+	 * Uses every item once per rotation and flip instead of a random one,
+	 * e.g. for deterministic validation data. Multiplies {@link #size()} by
+	 * eight for patches which are square in XY.
+	 */
+	void setExhaustiveAugmentation(boolean augment) {
+		this.augmentationFolds = augment ? transforms.length : 1;
+	}
 
-			batchYRA.setPosition(channel1Pos);
-			batchYRA.get().setReal(originalValue[k]);
+	private synchronized long nextSeed() {
+		return random.nextLong();
+	}
 
-			batchYRA.setPosition(channel2Pos);
-			batchYRA.get().setOne();
+	void on_epoch_end() {
+		// shuffle a copy, batches might still be prepared from the current order on other threads
+		TrainingDataCollection<T> shuffled = new TrainingDataCollection<>();
+		shuffled.addAll(XY);
+		Collections.shuffle(shuffled, new Random(nextSeed()));
+		XY = shuffled;
+	}
 
-			batchXRA.setPosition(channel1Pos);
-			batchXRA.get().setReal(x_val[k]);
-		}
+	/**
+	 * Samples one patch per training item of batch {@code i}, applies the
+	 * blind-spot manipulation and creates the batch tensors.
+	 */
+	TrainingBatch getBatch(int i) {
+		return prepareBatch(i).get();
 	}
 
-	private static List<Point> get_stratified_coords3D(long box_size, Dimensions shape) {
-		List<Point> coords = new ArrayList<>();
-		int box_count_x = (int) Math.ceil(shape.dimension(0) / (float)box_size);
-		int box_count_y = (int) Math.ceil(shape.dimension(1) / (float)box_size);
-		int box_count_z = (int) Math.ceil(shape.dimension(2) / (float)box_size);
-		for (int i = 0; i < box_count_x; i++) {
-			for (int j = 0; j < box_count_y; j++) {
-				for (int k = 0; k < box_count_z; k++) {
-					Point p = new Point((long)(Math.random() * box_size), (long)(Math.random() * box_size), (long)(Math.random() * box_size));
-	//                y, x = next(coord_gen)
-					p.setPosition(i * box_size + p.getIntPosition(0), 0);
-					p.setPosition(j * box_size + p.getIntPosition(1), 1);
-					p.setPosition(k * box_size + p.getIntPosition(2), 2);
-					if (p.getIntPosition(0) < shape.dimension(0)
-							&& p.getIntPosition(1) < shape.dimension(1)
-							&& p.getIntPosition(2) < shape.dimension(2)) {
-						coords.add(p);
-					}
-				}
-			}
-		}
-		return coords;
+	/**
+	 * Fixes the data order and the random seed of batch {@code i} on the
+	 * calling thread. The returned task creates the batch and can run on any
+	 * thread, the result only depends on the order of calls to this method.
+	 */
+	Supplier<TrainingBatch> prepareBatch(int i) {
+		TrainingDataCollection<T> data = XY;
+		long seed = nextSeed();
+		return () -> createBatch(data, i, seed);
 	}
 
-	private static List<Point> get_stratified_coords2D(long box_size, Dimensions shape) {
-		List<Point> coords = new ArrayList<>();
-		int box_count_x = (int) Math.ceil(shape.dimension(0) / (float)box_size);
-		int box_count_y = (int) Math.ceil(shape.dimension(1) / (float)box_size);
-		for (int i = 0; i < box_count_x; i++) {
-			for (int j = 0; j < box_count_y; j++) {
-				Point p = new Point((long)(Math.random() * box_size), (long)(Math.random() * box_size), 0);
-//                y, x = next(coord_gen)
-				p.setPosition(i * box_size + p.getIntPosition(0), 0);
-				p.setPosition(j * box_size + p.getIntPosition(1), 1);
-				if (p.getIntPosition(0) < shape.dimension(0) && p.getIntPosition(1) < shape.dimension(1)) {
-					coords.add(p);
-				}
+	private TrainingBatch createBatch(TrainingDataCollection<T> data, int i, long seed) {
+		int numPatches = (int) Math.min(batchSize, data.size() * augmentationFolds - i*batchSize);
+		SplittableRandom batchRandom = new SplittableRandom(seed);
+		long[] patchSeeds = new long[numPatches];
+		for (int j = 0; j < numPatches; j++) {
+			patchSeeds[j] = batchRandom.nextLong();
+		}
+		BatchBuffers buffers = bufferPool.poll();
+		if(buffers == null) buffers = new BatchBuffers(shape, batchSize);
+		try {
+			BatchBuffers batch = buffers;
+			IntConsumer preparePatch = j -> preparePatch(data, i * batchSize + j, patchSeeds[j], batch, j);
+			ForkJoinPool pool = this.pool;
+			if(pool == null || numPatches < 2) {
+				IntStream.range(0, numPatches).forEach(preparePatch);
+			} else {
+				pool.submit(() -> IntStream.range(0, numPatches).parallel().forEach(preparePatch)).join();
 			}
+			return buffers.toBatch(numPatches);
+		} finally {
+			bufferPool.offer(buffers);
 		}
-		return coords;
 	}
 
-	public static <T extends RealType<T> & NativeType<T>> double uniform_withCP(IntervalView<T> patch, Point coord) {
-//		System.out.println("original coord: " + coord);
-		IntervalView<T> sub_patch = Views.zeroMin(get_subpatch(patch, coord, local_sub_patch_radius));
-		Point rand_coord = new Point(coord.numDimensions()+1);
-		Random random = new Random();
-		for (int i = 0; i < patch.numDimensions()-1; i++) {
-			rand_coord.setPosition((int)Math.floor(random.nextInt((int) (sub_patch.dimension(i)-1))), i);
-		}
-		RandomAccess<T> ra = sub_patch.randomAccess();
-		ra.setPosition(rand_coord);
-//		System.out.println("new coord: " + rand_coord);
-		return ra.get().getRealDouble();
+	private void preparePatch(TrainingDataCollection<T> data, int item, long seed, BatchBuffers batch, int index) {
+		PatchBuffers patch = patchBuffers.get();
+		SplittableRandom r = new SplittableRandom(seed);
+		int transform = 0;
+		if(augmentationFolds > 1) transform = item % augmentationFolds;
+		else if(randomAugmentation) transform = r.nextInt(transforms.length);
+		samplePatch(data.get(item / augmentationFolds), patch, transform == 0 ? null : transforms[transform], r);
+		manipulateX(patch, r, manipulator);
+		batch.setPatch(index, patch);
 	}
 
-	private static <T extends RealType<T> & NativeType<T>> IntervalView<T> get_subpatch(IntervalView<T> patch, Point coord, int local_sub_patch_radius) {
-
-		Point start = new Point(patch.numDimensions());
-		Point end = new Point(patch.numDimensions());
-		Point shift = new Point(patch.numDimensions());
-
-		for (int i = 0; i < patch.numDimensions()-1; i++) {
-			start.setPosition(Math.max(0, coord.getIntPosition(i) - local_sub_patch_radius), i);
-			end.setPosition(start.getIntPosition(i) + local_sub_patch_radius*2+1, i);
-			shift.setPosition(Math.min(0, patch.dimension(i)-end.getIntPosition(i)), i);
-			start.setPosition(start.getIntPosition(i) + shift.getIntPosition(i), i);
-			end.setPosition(end.getIntPosition(i) + shift.getIntPosition(i), i);
-		}
-
-		long[] startPos = new long[start.numDimensions()];
-		long[] endPos = new long[start.numDimensions()];
-		start.localize(startPos);
-		end.localize(endPos);
-		return Views.interval(patch, startPos, endPos);
-//		slices = [ slice(s, e) for s, e in zip(start, end)]
-//		return patch[tuple(slices)]
-
+	@Override
+	public synchronized void close() {
+		pool = null;
+		bufferPool.clear();
 	}
 
-	private ProcessedTrainingData<T> subpatch_sampling(int[] idx) {
-
-		List<RandomAccessibleInterval<T>> xPatches = new ArrayList<>();
-		List<RandomAccessibleInterval<T>> yPatchesDenoise = new ArrayList<>();
-		List<RandomAccessibleInterval<T>> yPatchesSegment = new ArrayList<>();
-
-		Random r = new Random();
-		for (int i = 0; i < idx.length; i++) {
-			int batchIndex = idx[i];
-
-			long[] startX = new long[shape.numDimensions()+2];
-			long[] endX = new long[startX.length];
-			long[] endLabeling = new long[startX.length];
-			long[] endY = new long[startX.length];
-
-			for (int dimIndex = 0; dimIndex < shape.numDimensions(); dimIndex++) {
-				startX[dimIndex] = r.nextInt((int) (range.dimension(dimIndex) + 1));
-				endX[dimIndex] = startX[dimIndex] + shape.dimension(dimIndex) -1;
-				endY[dimIndex] = shape.dimension(dimIndex);
-				endLabeling[dimIndex] = endX[dimIndex];
+	/**
+	 * Replaces the values at stratified random blind-spot positions of the
+	 * input of {@code patch} and stores the original values
+	 * plus a mask in the denoise target. All replacement values are taken
+	 * from the unmodified patch.
+	 */
+	static void manipulateX(PatchBuffers patch, SplittableRandom random, ValueManipulatorConsumer manipulator) {
+		StratifiedCoordinates coords = patch.blindSpots;
+		float[] patchX = patch.input;
+		float[] patchY = patch.outDenoise;
+		float[] values = patch.blindSpotValues;
+		int[] dims = patch.getPatchDimensions();
+		int[] position = patch.blindSpotPosition;
+		int[] indices = patch.blindSpotIndices;
+		int numPoints = coords.generate(random);
+
+		for (int k = 0; k < numPoints; k++) {
+			int index = 0;
+			int stride = 1;
+			for (int d = 0; d < dims.length; d++) {
+				position[d] = coords.get(k, d);
+				index += position[d] * stride;
+				stride *= dims[d];
 			}
-
-			startX[shape.numDimensions()] = 0;
-			endX[shape.numDimensions()] = 0;
-
-			startX[shape.numDimensions()+1] = 0;
-			endX[shape.numDimensions()+1] = 0; //TODO make multichannel work
-			endLabeling[shape.numDimensions()+1] = 2;
-
-			endY[shape.numDimensions()] = 1;
-
-			endY[shape.numDimensions()+1] = 2; //TODO make multichannel work
-
-			RandomAccessibleInterval<T> patchX = getPatch(XY.get(batchIndex).input, new FinalInterval(startX, endX));
-//			System.out.println(Arrays.toString(startX) + " " + Arrays.toString(endLabeling));
-			RandomAccessibleInterval<T> patchLabeling = getPatchLabeling(XY.get(batchIndex).outSegment, new FinalInterval(startX, endLabeling));
-			xPatches.add(patchX);
-			FinalDimensions dimY = new FinalDimensions(endY);
-//			Y_Patches.add(opService.create().img(dimY, patchX.randomAccess().get()));
-			RandomAccessibleInterval<T> patchY = new ArrayImgFactory<>(patchX.randomAccess().get()).create(dimY);
-//			System.out.println(Arrays.toString(Intervals.dimensionsAsIntArray(patchLabeling)) + " " + Arrays.toString(Intervals.dimensionsAsIntArray(patchY)));
-			yPatchesDenoise.add(patchY);
-			yPatchesSegment.add(patchLabeling);
-//			if(i == 0) uiService.show(patchY);
-//	    Y_Batches[batchIndex] = Y[batchIndex, y_start:y_start + shape[0], x_start:x_start + shape[1]]
+			indices[k] = index;
+			patchY[index * BatchBuffers.denoiseChannels] = patchX[index];
+			patchY[index * BatchBuffers.denoiseChannels + 1] = 1;
+			values[k] = manipulator.accept(patchX, dims, position, random);
 		}
-		return new ProcessedTrainingData<>(
-				Views.concatenate(shape.numDimensions(), xPatches),
-				Views.concatenate(shape.numDimensions(), yPatchesDenoise),
-				Views.concatenate(shape.numDimensions(), yPatchesSegment));
-	}
 
-	private RandomAccessibleInterval<T> getPatch(RandomAccessibleInterval<T> source, FinalInterval interval) {
-		Img<T> res = new ArrayImgFactory<>(source.randomAccess().get()).create(Views.zeroMin(Views.interval(source, interval)));
-		Cursor<T> inCursor = Views.zeroMin(Views.interval(source, interval)).localizingCursor();
-		RandomAccess<T> outRA = res.randomAccess();
-		while(inCursor.hasNext()) {
-			inCursor.next();
-			outRA.setPosition(inCursor);
-			outRA.get().set(inCursor.get());
+		for (int k = 0; k < numPoints; k++) {
+			patchX[indices[k]] = values[k];
 		}
-		return res;
-//		return opService.copy().rai(Views.zeroMin(Views.interval(source, interval)));
 	}
 
-	private RandomAccessibleInterval<T> getPatchLabeling(RandomAccessibleInterval<T> source, FinalInterval interval) {
-		return Views.zeroMin(Views.interval(source, interval));
+	private void samplePatch(TrainingData<T> item, PatchBuffers patch, int[] planeIndices, SplittableRandom r) {
+		long[] min = new long[item.input.numDimensions()];
+		for (int dimIndex = 0; dimIndex < shape.numDimensions(); dimIndex++) {
+			min[dimIndex] = r.nextInt((int) (item.input.dimension(dimIndex) - shape.dimension(dimIndex) + 1));
+		}
+		patch.clear();
+		PatchCopy.copy(item.input, min, patch.getPatchDimensions(), patch.input, BatchBuffers.inputChannels, planeIndices);
+		PatchCopy.copy(item.outSegment, min, patch.getPatchDimensions(), patch.outSegment, BatchBuffers.segmentChannels, planeIndices);
 	}
 
 }
@@ -36,10 +36,20 @@ import net.imglib2.type.numeric.real.FloatType;
 import org.scijava.Context;
 import org.tensorflow.Graph;
 import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DenoiSegOutputHandler extends AbstractOutputHandler {
 
@@ -60,11 +70,38 @@ public class DenoiSegOutputHandler extends AbstractOutputHandler {
 	private final static String defaultSampleOutput = "sample_out.tif";
 	private double threshold = 0.5; //TODO calculate from validation data
 
+	// saver ops of the training graph, see src/main/python/build_graph.py
+	private final static String saverFilenameOp = "save/Const";
+	private final static String saverSaveOp = "save/control_dependency";
+	private final static String variablesName = "variables";
+
+	private final CheckpointPolicy checkpointPolicy;
+	private final CheckpointWriter checkpointWriter;
+	private boolean checkpointSaved = false;
+	private volatile boolean bestModelChanged = false;
+	// training steps of the checkpoints, written to the model specification
+	private final Map<File, Integer> snapshotSteps = new ConcurrentHashMap<>();
+	private volatile int latestSteps = 0;
+	private volatile int bestSteps = 0;
+	private boolean describingBest = false;
+
 	DenoiSegOutputHandler(DenoiSegConfig config, DenoiSegTraining training, Context context) {
 		super(context);
 		this.config = config;
 		this.currentLearningRate = config.getLearningRate();
 		this.training = training;
+		this.checkpointPolicy = new CheckpointPolicy(config);
+		this.checkpointWriter = new CheckpointWriter(new CheckpointWriter.Output() {
+			@Override
+			public void install(File snapshot) throws IOException {
+				installSnapshot(snapshot);
+			}
+
+			@Override
+			public void copyBest() throws IOException {
+				keepBestVariables();
+			}
+		});
 	}
 
 	@Override
@@ -77,33 +114,216 @@ public class DenoiSegOutputHandler extends AbstractOutputHandler {
 		DenoiSegModelSpecification spec = new DenoiSegModelSpecification();
 		spec.setName("unnamed denoiseg " + name);
 		spec.setTimestamp(getTimestamp());
-		spec.update(config, this, training.getStepsFinished());
+		spec.update(config, this, describingBest ? bestSteps : latestSteps);
 		return spec;
 	}
 
 	void createSavedModelDirs() throws IOException {
 		String predictionGraphDir = config.getTrainDimensions() == 2 ? "denoiseg_prediction_2d" : "denoiseg_prediction_3d";
-		super.createSavedModelDirs(getClass().getResourceAsStream("/" + predictionGraphDir + "/saved_model.pb"));
+		super.createSavedModelDirs(resource(predictionGraphDir + "/saved_model.pb"));
 	}
 
 	void loadUntrainedGraph(Graph graph) throws IOException {
 		String graphName = config.getTrainDimensions() == 2 ? "denoiseg_graph_2d.pb" : "denoiseg_graph_3d.pb";
-		super.loadUntrainedGraph(graph, getClass().getResourceAsStream("/" + graphName) );
+		super.loadUntrainedGraph(graph, resource(graphName));
+	}
+
+	/**
+	 * @throws IOException if the resource is not bundled, e.g. the graphs of a network type which was not built
+	 */
+	private InputStream resource(String name) throws IOException {
+		InputStream res = getClass().getResourceAsStream("/" + name);
+		if(res == null) throw new IOException("Missing resource " + name + " for " + config.getTrainDimensions()
+				+ "D training, it is created by src/main/python/build_graph.py --dims " + config.getTrainDimensions());
+		return res;
 	}
 
+	/**
+	 * Copies the best checkpoint to the best model directory. During training
+	 * the variables of the best checkpoint are only linked next to the most
+	 * recent model, see {@link #keepBestVariables()}, so the directory is
+	 * copied once per export instead of on every improvement.
+	 */
 	@Override
-	protected void copyBestModel() {
-		if(bestValidationLoss > currentValidationLoss) {
-			bestValidationLoss = currentValidationLoss;
+	protected synchronized void copyBestModel() {
+		if(!bestModelChanged) return;
+		Path latest = latestVariables();
+		File stash = modelSibling("latest");
+		try {
+			linkVariables(latest, stash.toPath());
+			linkVariables(modelSibling("best").toPath(), latest);
+			describingBest = true;
 			super.copyBestModel();
+			linkVariables(stash.toPath(), latest);
+			bestModelChanged = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			describingBest = false;
+			try {
+				CheckpointWriter.delete(stash);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
+	/**
+	 * Saves the variables of {@code sess} as most recent model if the
+	 * {@link CheckpointPolicy} asks for it. The first checkpoint is written
+	 * right away, including the samples and the model specification. Later
+	 * checkpoints only save a snapshot of the variables on the calling thread
+	 * and are moved to the model directory in the background, see
+	 * {@link #flushCheckpoints()}.
+	 *
+	 * @param epoch zero based index of the finished epoch
+	 * @param last  whether training ends after this epoch
+	 */
 	void saveCheckpoint(Session sess, RandomAccessibleInterval<FloatType> exampleInput,
-	                    RandomAccessibleInterval<FloatType> exampleOutput) {
-		super.saveCheckpoint(sess,
-				Collections.singletonList(new ImageTensorSample<>(exampleInput, defaultSampleInput)),
-				Collections.singletonList(new ImageTensorSample<>(exampleOutput, defaultSampleOutput)));
+	                    RandomAccessibleInterval<FloatType> exampleOutput, int epoch, boolean last) throws IOException {
+		boolean best = bestValidationLoss > currentValidationLoss;
+		if(best) bestValidationLoss = currentValidationLoss;
+		if(!checkpointPolicy.save(epoch, best, last)) return;
+		int steps = training.getStepsFinished();
+		if(!checkpointSaved) {
+			latestSteps = steps;
+			super.saveCheckpoint(sess,
+					Collections.singletonList(new ImageTensorSample<>(exampleInput, defaultSampleInput)),
+					Collections.singletonList(new ImageTensorSample<>(exampleOutput, defaultSampleOutput)));
+			checkpointSaved = true;
+			keepCheckpoint(checkpointName(epoch));
+			if(best) keepBestVariables();
+			return;
+		}
+		File snapshot = snapshot(sess, epoch);
+		snapshotSteps.put(snapshot, steps);
+		checkpointWriter.submit(snapshot, best);
+	}
+
+	/**
+	 * Makes the best checkpoint the most recent model, e.g. after training was stopped early.
+	 */
+	synchronized void restoreBestCheckpoint() throws IOException {
+		flushCheckpoints();
+		File best = modelSibling("best");
+		if(!best.isDirectory()) return;
+		linkVariables(best.toPath(), latestVariables());
+		latestSteps = bestSteps;
+	}
+
+	private static String checkpointName(int epoch) {
+		return String.format("epoch%05d", epoch + 1);
+	}
+
+	private File modelSibling(String suffix) {
+		File modelDir = getMostRecentModelDir();
+		return new File(modelDir.getParentFile(), modelDir.getName() + "." + suffix);
+	}
+
+	private Path latestVariables() {
+		return new File(getMostRecentModelDir(), variablesName).toPath();
+	}
+
+	private File snapshot(Session sess, int epoch) throws IOException {
+		File dir = modelSibling(checkpointName(epoch));
+		Files.createDirectories(dir.toPath());
+		try (Tensor<String> prefix = Tensors.create(new File(dir, variablesName).getAbsolutePath())) {
+			sess.runner().feed(saverFilenameOp, prefix).addTarget(saverSaveOp).run();
+		}
+		return dir;
+	}
+
+	/**
+	 * Replaces the variables of the most recent model with the ones of the snapshot.
+	 */
+	private void installSnapshot(File snapshot) throws IOException {
+		Path target = latestVariables();
+		Files.createDirectories(target);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(snapshot.toPath(), variablesName + ".*")) {
+			for (Path file : files) {
+				Files.move(file, target.resolve(file.getFileName()),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+		Integer steps = snapshotSteps.remove(snapshot);
+		if(steps != null) latestSteps = steps;
+		String name = snapshot.getName();
+		keepCheckpoint(name.substring(name.lastIndexOf('.') + 1));
+	}
+
+	/**
+	 * Links the variables of the most recent model into the checkpoint
+	 * history and removes the oldest checkpoints exceeding
+	 * {@link DenoiSegConfig#setKeepLastCheckpoints(int)}.
+	 */
+	private void keepCheckpoint(String name) throws IOException {
+		int keep = checkpointPolicy.getKeepLast();
+		if(keep == 0) return;
+		File history = modelSibling("checkpoints");
+		linkVariables(latestVariables(), new File(history, name).toPath());
+		String[] checkpoints = history.list();
+		if(checkpoints == null) return;
+		for (String checkpoint : checkpointPolicy.expired(checkpoints)) {
+			CheckpointWriter.delete(new File(history, checkpoint));
+		}
+	}
+
+	private void keepBestVariables() throws IOException {
+		linkVariables(latestVariables(), modelSibling("best").toPath());
+		bestSteps = latestSteps;
+		bestModelChanged = true;
+	}
+
+	/**
+	 * Hard links the variables files of {@code source} into {@code target},
+	 * replacing existing files atomically. Files are copied if the file
+	 * system does not support hard links.
+	 */
+	private static void linkVariables(Path source, Path target) throws IOException {
+		Files.createDirectories(target);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(source, variablesName + ".*")) {
+			for (Path file : files) {
+				Path tmp = target.resolve(file.getFileName() + ".tmp");
+				Files.deleteIfExists(tmp);
+				try {
+					Files.createLink(tmp, file);
+				} catch (UnsupportedOperationException | IOException e) {
+					Files.copy(file, tmp);
+				}
+				Files.move(tmp, target.resolve(file.getFileName()),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+	}
+
+	/**
+	 * Waits until all checkpoints are written to the model directories.
+	 */
+	void flushCheckpoints() throws IOException {
+		checkpointWriter.flush();
+	}
+
+	@Override
+	public File exportLatestTrainedModel() throws IOException {
+		flushCheckpoints();
+		return super.exportLatestTrainedModel();
+	}
+
+	@Override
+	public File exportBestTrainedModel() throws IOException {
+		flushCheckpoints();
+		copyBestModel();
+		return super.exportBestTrainedModel();
+	}
+
+	@Override
+	public void dispose() {
+		try {
+			checkpointWriter.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		super.dispose();
 	}
 
 	float getCurrentSegLoss() {
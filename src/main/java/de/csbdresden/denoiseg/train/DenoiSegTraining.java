@@ -34,14 +34,11 @@ import de.csbdresden.n2v.ui.TrainingProgress;
 import net.imagej.modelzoo.ModelZooArchive;
 import net.imagej.modelzoo.ModelZooService;
 import net.imagej.modelzoo.consumer.model.tensorflow.TensorFlowConverter;
-import net.imagej.ops.OpService;
 import net.imagej.tensorflow.TensorFlowService;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Pair;
-import net.imglib2.util.ValuePair;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import org.scijava.Context;
@@ -55,16 +52,19 @@ import org.scijava.ui.UIService;
 import org.tensorflow.Graph;
 import org.tensorflow.Session;
 import org.tensorflow.Tensor;
-import org.tensorflow.Tensors;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public class DenoiSegTraining implements ModelZooTraining {
 
@@ -72,9 +72,6 @@ public class DenoiSegTraining implements ModelZooTraining {
 	@Parameter
 	private TensorFlowService tensorFlowService;
 
-	@Parameter
-	private OpService opService;
-
 	@Parameter
 	private UIService uiService;
 
@@ -135,11 +132,16 @@ public class DenoiSegTraining implements ModelZooTraining {
 	private int previewCount = 1;
 
 	private int index;
-	private Tensor<Float> tensorWeightsSegment;
-	private Tensor<Float> tensorWeightsDenoise;
-	private ProcessedTrainingDataCollection<FloatType> validationData;
-	private List<Pair<Tensor, Pair<Tensor, Tensor>>> validationTensorData;
+	private int preparedBatches;
+	private TrainingTensorCache tensors;
+	private DenoiSegDataWrapper<FloatType> trainingData;
+	private List<TrainingBatch> validationBatches;
+	private ValidationScheduler validationScheduler;
+	private boolean validationEpoch = false;
+	private EarlyStopping earlyStopping;
 	private Future<?> future;
+	private TrainingBatchPrefetcher trainingBatches;
+	private ForkJoinPool pool;
 	private int count = 0;
 
 	public interface TrainingCallback {
@@ -181,6 +183,11 @@ public class DenoiSegTraining implements ModelZooTraining {
 		logService.info(tensorFlowService.getStatus().getInfo());
 
 		addCallbackOnEpochDone(new ReduceLearningRateOnPlateau()::reduceLearningRateOnPlateau);
+		if (config.getEarlyStoppingPatience() > 0) {
+			earlyStopping = new EarlyStopping(logService, config.getEarlyStoppingPatience(),
+					config.getEarlyStoppingMinDelta(), config.getRestoreBestWeights());
+			addCallbackOnEpochDone(earlyStopping::onEpochDone);
+		}
 		addCallbackOnCancel(input()::cancel);
 
 	}
@@ -221,13 +228,12 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 	private void mainThread() {
 		outputHandler = new DenoiSegOutputHandler(config, this, context);
-		addCallbackOnEpochDone(training -> outputHandler.copyBestModel());
 
 		logTrainingStep("Create session..");
 		if (Thread.interrupted() || isCanceled()) return;
 
 		try (Graph graph = new Graph();
-		     Session sess = new Session(graph)) {
+		     Session sess = createSession(graph)) {
 
 			this.session = sess;
 
@@ -243,23 +249,21 @@ public class DenoiSegTraining implements ModelZooTraining {
 			logTrainingStep("Normalizing..");
 			normalize();
 
-			if (Thread.interrupted() || isCanceled()) return;
-			logTrainingStep("Augment tiles..");
-			augmentInputData();
-
 			if (Thread.interrupted() || isCanceled()) return;
 			logTrainingStep("Prepare training batches...");
 			double n2v_perc_pix = 1.6;
-			if (!batchNumSufficient(input().getTrainingData().size())) return;
-			DenoiSegDataWrapper<FloatType> training_data = makeTrainingData(n2v_perc_pix);
+			trainingData = makeTrainingData(n2v_perc_pix);
+			if (!batchNumSufficient(trainingData.size())) return;
 
 			if (Thread.interrupted()) return;
 			logTrainingStep("Prepare validation batches..");
 			makeValidationData(n2v_perc_pix);
 
 			index = 0;
-			tensorWeightsSegment = makeWeightsTensor();
-			tensorWeightsDenoise = makeWeightsTensor();
+			preparedBatches = 0;
+			tensors = new TrainingTensorCache();
+			trainingBatches = new TrainingBatchPrefetcher(this::prepareNextBatch,
+					config().getPrefetchQueueSize(), config().getPrefetchThreads());
 
 			if (handleInterruptionOrCancelation()) return;
 			logTrainingStep("Start training..");
@@ -275,9 +279,10 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 			for (int epoch = 0; epoch < config().getNumEpochs() && !stopTraining; epoch++) {
 				updateTimeEstimator(timeEstimator, epoch);
-				runEpoch(training_data, epoch);
+				runEpoch(trainingBatches, epoch);
 				if (handleInterruptionOrCancelation()) return;
 			}
+			if (earlyStopping != null) earlyStopping.onTrainingDone(this);
 
 //			sess.runner().feed("save/Const", checkpointPrefix).addTarget("save/control_dependency").run();
 
@@ -299,16 +304,53 @@ public class DenoiSegTraining implements ModelZooTraining {
 				e.printStackTrace();
 			}
 		} finally {
-			if (tensorWeightsSegment != null) tensorWeightsSegment.close();
-			if (tensorWeightsDenoise != null) tensorWeightsDenoise.close();
-			if (validationTensorData != null) {
-				for (Pair<Tensor, Pair<Tensor, Tensor>> pair : validationTensorData) {
-					pair.getA().close();
-					pair.getB().getA().close();
-					pair.getB().getB().close();
-				}
+			if (trainingBatches != null) trainingBatches.close();
+			if (tensors != null) tensors.close();
+			if (trainingData != null) trainingData.close();
+			if (validationBatches != null) validationBatches.forEach(TrainingBatch::close);
+			flushCheckpoints();
+			if (pool != null) pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * @return pool of {@link DenoiSegConfig#getParallelism()} threads shared by the training and validation
+	 * batches, null if the patches are prepared sequentially
+	 */
+	private ForkJoinPool pool() {
+		if (pool == null && config().getParallelism() > 1) pool = new ForkJoinPool(config().getParallelism());
+		return pool;
+	}
+
+	private void flushCheckpoints() {
+		if (output() == null) return;
+		try {
+			output().flushCheckpoints();
+		} catch (IOException e) {
+			logService.error("Could not write checkpoint: " + e.getMessage());
+		}
+	}
+
+	private Session createSession(Graph graph) {
+		int intraOp = config().getIntraOpThreads();
+		String affinity = config().getCpuAffinity();
+		if (affinity != null) {
+			BitSet cpus = TensorFlowThreads.parseCpuList(affinity);
+			if (intraOp <= 0) intraOp = cpus.cardinality();
+			BitSet allowed = TensorFlowThreads.allowedCpus();
+			if (allowed != null && !allowed.equals(cpus)) {
+				logService.warn("Process runs on CPUs " + allowed + " instead of " + cpus
+						+ ", start it with the desired affinity, e.g. taskset -c " + affinity);
 			}
 		}
+		// leave the threads preparing prefetched batches to the CPU, this split is not measured
+		int preparationThreads = config().getPrefetchWorkers() > 0 ?
+				Math.max(config().getParallelism(), config().getPrefetchWorkers()) : 0;
+		if (intraOp <= 0) intraOp = Math.max(1, config().getThreadBudget() - preparationThreads);
+		logService.info("TensorFlow threads: intra-op " + (intraOp > 0 ? intraOp : "default")
+				+ ", inter-op " + (config().getInterOpThreads() > 0 ? config().getInterOpThreads() : "default"));
+		return TensorFlowThreads.createSession(graph, intraOp, config().getInterOpThreads());
 	}
 
 	private boolean confirmInputData() {
@@ -318,30 +360,34 @@ public class DenoiSegTraining implements ModelZooTraining {
 		return inputConfirmationHandler.confirmValidationData();
 	}
 
-	private void augmentInputData() {
-		DenoiSegDataGenerator.augment(input().getTrainingData());
-		DenoiSegDataGenerator.augment(input().getValidationData());
-	}
-
-	private void runEpoch(DenoiSegDataWrapper<FloatType> training_data, int epoch) {
+	private void runEpoch(TrainingBatchPrefetcher batches, int epoch) {
 		List<Double> losses = new ArrayList<>(config().getStepsPerEpoch());
 		for (int step = 0; step < config().getStepsPerEpoch() && !stopTraining; step++) {
 			if (handleInterruptionOrCancelation()) return;
-			runEpochStep(session, epoch, step, training_data, losses);
+			runEpochStep(session, epoch, step, batches, losses);
 		}
 		if (!headless()) {
 			dialog.enableModelSaving();
 		}
 		if (handleInterruptionOrCancelation()) return;
-		training_data.on_epoch_end();
-		float validationLoss = validate();
-		if (handleInterruptionOrCancelation()) return;
-		output().saveCheckpoint(session, previewHandler.getExampleInput(), previewHandler.getExampleOutputDenoise());
-		output().setCurrentValidationLoss(validationLoss);
+		validationEpoch = validationScheduler.validate(epoch, epoch + 1 == config().getNumEpochs() || stopTraining);
+		if (validationEpoch) {
+			float loss = validate();
+			if (handleInterruptionOrCancelation()) return;
+			output().setCurrentValidationLoss(loss);
+		}
+		float validationLoss = output().getCurrentValidationLoss();
+		// callbacks first, the checkpoint of an epoch after which a callback stopped training is always saved
+		onEpochDoneCallbacks.forEach(callback -> callback.accept(this));
+		try {
+			output().saveCheckpoint(session, previewHandler.getExampleInput(), previewHandler.getExampleOutputDenoise(),
+					epoch, epoch + 1 == config().getNumEpochs() || stopTraining);
+		} catch (IOException e) {
+			logService.error("Could not save checkpoint: " + e.getMessage());
+		}
 		if (!headless()) {
 			threadService.queue(() -> dialog.updateTrainingChart(epoch + 1, losses, validationLoss));
 		}
-		onEpochDoneCallbacks.forEach(callback -> callback.accept(this));
 	}
 
 	private void logTrainingStep(String msg) {
@@ -352,12 +398,7 @@ public class DenoiSegTraining implements ModelZooTraining {
 	}
 
 	private boolean handleInterruptionOrCancelation() {
-		if (Thread.interrupted() || isCanceled()) {
-			tensorWeightsDenoise.close();
-			tensorWeightsSegment.close();
-			return true;
-		}
-		return false;
+		return Thread.interrupted() || isCanceled();
 	}
 
 	private void initPreviewHandler() {
@@ -392,10 +433,14 @@ public class DenoiSegTraining implements ModelZooTraining {
 		}
 	}
 
-	private void runEpochStep(Session sess, int i, int j, DenoiSegDataWrapper<FloatType> training_data, List<Double> losses) {
-		resetBatchIndexIfNeeded();
-		ProcessedTrainingData<FloatType> item = training_data.getItem(index);
-		runTrainingOp(sess, item);
+	private void runEpochStep(Session sess, int i, int j, TrainingBatchPrefetcher batches, List<Double> losses) {
+		TrainingBatch batch = batches.next();
+		if(batch == null) return;
+		try {
+			runTrainingOp(sess, batch);
+		} finally {
+			batch.close();
+		}
 		if(!isCanceled() && !isStopped()) {
 			losses.add((double) output().getCurrentLoss());
 			logStatusInConsole(j + 1, config().getStepsPerEpoch());
@@ -403,12 +448,27 @@ public class DenoiSegTraining implements ModelZooTraining {
 				threadService.queue(() -> dialog.updateTrainingProgress(i + 1, j + 1));
 			}
 			stepsFinished = config().getStepsPerEpoch() * i + j + 1;
-			index++;
 		}
 	}
 
+	/**
+	 * Called in the order the training steps use the batches, also for batches prefetched for the next epoch.
+	 * The training data of an epoch is shuffled before its first batch is prepared, so the batches do not
+	 * depend on how many of them are prefetched.
+	 */
+	private Supplier<TrainingBatch> prepareNextBatch() {
+		if (preparedBatches > 0 && preparedBatches % config().getStepsPerEpoch() == 0) trainingData.on_epoch_end();
+		preparedBatches++;
+		return trainingData.prepareBatch(nextBatchIndex());
+	}
+
+	private int nextBatchIndex() {
+		resetBatchIndexIfNeeded();
+		return index++;
+	}
+
 	private void resetBatchIndexIfNeeded() {
-		if (index * config().getTrainBatchSize() + config().getTrainBatchSize() > input().getTrainingData().size() - 1) {
+		if (index * config().getTrainBatchSize() + config().getTrainBatchSize() > trainingData.size() - 1) {
 			index = 0;
 			previewCount = 2;
 			logService.info("starting with index 0 of training batches");
@@ -420,7 +480,15 @@ public class DenoiSegTraining implements ModelZooTraining {
 		Arrays.fill(patchShapeData, config().getTrainPatchShape());
 		Dimensions patch_shape = new FinalDimensions(patchShapeData);
 
-		return new DenoiSegDataWrapper<>(input().getTrainingData(), config().getTrainBatchSize(), n2v_perc_pix, patch_shape, config().getNeighborhoodRadius(), DenoiSegDataWrapper::uniform_withCP);
+		DenoiSegDataWrapper<FloatType> data = new DenoiSegDataWrapper<>(input().getTrainingData(), config().getTrainBatchSize(), n2v_perc_pix, patch_shape, new UniformNeighborManipulator(config().getNeighborhoodRadius()));
+		configureDataWrapper(data, 0);
+		data.setRandomAugmentation(config().getAugmentation());
+		return data;
+	}
+
+	private void configureDataWrapper(DenoiSegDataWrapper<FloatType> data, long seedOffset) {
+		if (config().getSeed() != null) data.setSeed(config().getSeed() + seedOffset);
+		data.setPool(pool());
 	}
 
 	private void makeValidationData(double n2v_perc_pix) {
@@ -438,22 +506,20 @@ public class DenoiSegTraining implements ModelZooTraining {
 		Dimensions patch_shape = new FinalDimensions(patchShapeData);
 		DenoiSegDataWrapper<FloatType> valData = new DenoiSegDataWrapper<>(input().getValidationData(),
 				Math.min(config().getTrainBatchSize(), input().getValidationData().size()),
-				n2v_perc_pix, patch_shape, config().getNeighborhoodRadius(),
-				DenoiSegDataWrapper::uniform_withCP);
+				n2v_perc_pix, patch_shape, new UniformNeighborManipulator(config().getNeighborhoodRadius()));
 
-		ProcessedTrainingDataCollection<FloatType> validationDataList = new ProcessedTrainingDataCollection<>();
-		for (int i = 0; i < valData.numBatches(); i++) {
-			validationDataList.add(valData.getItem(i));
-		}
-		this.validationData = validationDataList;
-		validationTensorData = new ArrayList<>();
-		for (ProcessedTrainingData<FloatType> data : validationDataList) {
-			Tensor tensorX = TensorFlowConverter.imageToTensor(data.input, getMapping());
-			RandomAccessibleInterval<FloatType> denoised = data.outDenoise;
-			RandomAccessibleInterval<FloatType> segmented = data.outSegment;
-			Tensor tensorYDenoise = TensorFlowConverter.imageToTensor(denoised, getMapping());
-			Tensor tensorYSegment = TensorFlowConverter.imageToTensor(segmented, getMapping());
-			validationTensorData.add(new ValuePair<>(tensorX, new ValuePair<>(tensorYDenoise, tensorYSegment)));
+		configureDataWrapper(valData, 1);
+		valData.setExhaustiveAugmentation(config().getAugmentation() && config().getValidationAugmentation());
+
+		validationScheduler = new ValidationScheduler(config(), valData.numBatches(),
+				config().getSeed() == null ? new Random() : new Random(config().getSeed()));
+		validationBatches = new ArrayList<>();
+		try {
+			for (int i : validationScheduler.getBatches()) {
+				validationBatches.add(valData.getBatch(i));
+			}
+		} finally {
+			valData.close();
 		}
 	}
 
@@ -464,36 +530,60 @@ public class DenoiSegTraining implements ModelZooTraining {
 		for (TrainingData<FloatType> pair : input().getTrainingData()) {
 			x.add(pair.input);
 		}
-		mean.set(opService.stats().mean(Views.iterable(Views.stack(x))).getRealFloat());
-		stdDev.set(opService.stats().stdDev(Views.iterable(Views.stack(x))).getRealFloat());
+		long start = System.currentTimeMillis();
+		DatasetCache cache = config().getCacheDirectory() == null ? null : new DatasetCache(config().getCacheDirectory());
+		List<String> datasetKeys = input().getTrainingCacheKeys();
+		String key = cache == null || datasetKeys == null ? null :
+				cache.statisticsKey(datasetKeys, config().getNormalizationSampleFraction(), config().getSeed());
+		NormalizationStatistics stats = readStatistics(cache, key);
+		if(stats == null) {
+			long seed = config().getSeed() != null ? config().getSeed() : System.nanoTime();
+			stats = NormalizationStatistics.compute(x,
+					config().getNormalizationSampleFraction(), seed,
+					config().getThreadBudget() > 1 ? ForkJoinPool.commonPool() : null);
+			writeStatistics(cache, key, stats);
+		}
+		mean.set((float) stats.getMean());
+		stdDev.set((float) stats.getStdDev());
 		logService.info("mean: " + mean.get());
 		logService.info("stdDev: " + stdDev.get());
+		logService.info("normalization statistics of " + stats.getCount() + " pixels in "
+				+ (System.currentTimeMillis() - start) + " ms");
 
-		TrainUtils.normalize(input().getTrainingData(), mean, stdDev);
-		TrainUtils.normalize(input().getValidationData(), mean, stdDev);
+		TrainUtils.normalize(input().getTrainingData(), mean, stdDev, config().getTileStorage());
+		TrainUtils.normalize(input().getValidationData(), mean, stdDev, config().getTileStorage());
 	}
 
-	private void runTrainingOp(Session sess, ProcessedTrainingData<FloatType> item) {
-//		if(previewCount-- > 0) {
-//			opService.context().service(UIService.class).show("input", item.input);
-//			opService.context().service(UIService.class).show("denoise", item.outDenoise);
-//			opService.context().service(UIService.class).show("segmented", item.outSegment);
-//		}
-		Tensor tensorX = TensorFlowConverter.imageToTensor(item.input, getMapping());
-		Tensor tensorYDenoise = TensorFlowConverter.imageToTensor(item.outDenoise, getMapping());
-		Tensor tensorYSegment = TensorFlowConverter.imageToTensor(item.outSegment, getMapping());
+	private NormalizationStatistics readStatistics(DatasetCache cache, String key) {
+		if(key == null) return null;
+		try {
+			return cache.readStatistics(key);
+		} catch (IOException e) {
+			logService.warn("Could not read cached normalization statistics: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void writeStatistics(DatasetCache cache, String key, NormalizationStatistics stats) {
+		if(key == null) return;
+		try {
+			cache.writeStatistics(key, stats);
+		} catch (IOException e) {
+			logService.warn("Could not cache normalization statistics: " + e.getMessage());
+		}
+	}
 
+	private void runTrainingOp(Session sess, TrainingBatch batch) {
 		Session.Runner runner = sess.runner();
 
-		Tensor<Float> learningRate = Tensors.create(output().getCurrentLearningRate());
-		Tensor<Boolean> learningPhase = Tensors.create(true);
-		runner.feed(trainingFeedXOp, tensorX)
-				.feed(trainingFeedYDenoiseOp, tensorYDenoise)
-				.feed(trainingFeedYSegmentOp, tensorYSegment)
-				.feed(trainingFeedLearningPhaseOp, learningPhase)
-				.feed(lrAssignOpName, learningRate)
-				.feed(trainingFeedSampleWeightsDenoiseOp, tensorWeightsDenoise)
-				.feed(trainingFeedSampleWeightsSegmentOp, tensorWeightsSegment)
+		Tensor<Float> weights = tensors.getWeights(batch.size);
+		runner.feed(trainingFeedXOp, batch.input)
+				.feed(trainingFeedYDenoiseOp, batch.outDenoise)
+				.feed(trainingFeedYSegmentOp, batch.outSegment)
+				.feed(trainingFeedLearningPhaseOp, tensors.getLearningPhase(true))
+				.feed(lrAssignOpName, tensors.getLearningRate(output().getCurrentLearningRate()))
+				.feed(trainingFeedSampleWeightsDenoiseOp, weights)
+				.feed(trainingFeedSampleWeightsSegmentOp, weights)
 				.addTarget(trainingTargetOp);
 		runner.fetch(trainingFetchLossOp);
 		runner.fetch(trainingFetchDenoiseLossOp);
@@ -512,11 +602,6 @@ public class DenoiSegTraining implements ModelZooTraining {
 		output().setCurrentLearningRate(newLearningRate);
 
 		fetchedTensors.forEach(Tensor::close);
-		tensorX.close();
-		tensorYDenoise.close();
-		tensorYSegment.close();
-		learningPhase.close();
-		learningRate.close();
 	}
 
 	private RandomAccessibleInterval<FloatType> getChannels(RandomAccessibleInterval<FloatType> img, int channelMin, int channelMax) {
@@ -542,7 +627,7 @@ public class DenoiSegTraining implements ModelZooTraining {
 		return new int[0];
 	}
 
-	private boolean batchNumSufficient(int n_train) {
+	private boolean batchNumSufficient(long n_train) {
 		if (config().getTrainBatchSize() > n_train) {
 			String errorMsg = "Not enough training data (" + n_train + " batches). At least " + config().getTrainBatchSize() + " batches needed.";
 			logService.error(errorMsg);
@@ -554,38 +639,27 @@ public class DenoiSegTraining implements ModelZooTraining {
 		return true;
 	}
 
-	private Tensor<Float> makeWeightsTensor() {
-		float[] weightsdata = new float[config().getTrainBatchSize()];
-		Arrays.fill(weightsdata, 1);
-		return Tensors.create(weightsdata);
-	}
-
 	private float validate() {
 
 		float avgDenoiseLoss = 0;
 		float avgSegLoss = 0;
 		float avgLoss = 0;
 
-		long validationBatches = validationTensorData.size();
+		long start = System.nanoTime();
 		int i = 0;
-		for (; i < validationBatches; i++) {
+		for (; i < validationBatches.size(); i++) {
 
-			Pair<Tensor, Pair<Tensor, Tensor>> tensorItem = validationTensorData.get(i);
-			ProcessedTrainingData<FloatType> item = validationData.get(i);
-
-			Tensor tensorX = tensorItem.getA();
-			Tensor tensorYDenoise = tensorItem.getB().getA();
-			Tensor tensorYSegment = tensorItem.getB().getB();
-			Tensor<Boolean> tensorLearningPhase = Tensors.create(false);
+			TrainingBatch batch = validationBatches.get(i);
+			Tensor<Float> weights = tensors.getWeights(batch.size);
 
 			Session.Runner runner = session.runner();
 
-			runner.feed(trainingFeedXOp, tensorX)
-					.feed(trainingFeedYDenoiseOp, tensorYDenoise)
-					.feed(trainingFeedYSegmentOp, tensorYSegment)
-					.feed(trainingFeedLearningPhaseOp, tensorLearningPhase)
-					.feed(trainingFeedSampleWeightsSegmentOp, tensorWeightsSegment)
-					.feed(trainingFeedSampleWeightsDenoiseOp, tensorWeightsDenoise)
+			runner.feed(trainingFeedXOp, batch.input)
+					.feed(trainingFeedYDenoiseOp, batch.outDenoise)
+					.feed(trainingFeedYSegmentOp, batch.outSegment)
+					.feed(trainingFeedLearningPhaseOp, tensors.getLearningPhase(false))
+					.feed(trainingFeedSampleWeightsSegmentOp, weights)
+					.feed(trainingFeedSampleWeightsDenoiseOp, weights)
 					.addTarget(validationTargetOp);
 			runner.fetch(trainingFetchLossOp);
 			runner.fetch(trainingFetchDenoiseLossOp);
@@ -604,15 +678,15 @@ public class DenoiSegTraining implements ModelZooTraining {
 			if (i == 0) {
 				Tensor outputTensorDenoise = fetchedTensors.get(3);
 				Tensor outputTensorSegment = fetchedTensors.get(4);
+				RandomAccessibleInterval<FloatType> input = TensorFlowConverter.tensorToImage(batch.input, getMapping());
 				RandomAccessibleInterval<FloatType> outputDenoise = TensorFlowConverter.tensorToImage(outputTensorDenoise, getMapping());
 				RandomAccessibleInterval<FloatType> outputSegment = TensorFlowConverter.tensorToImage(outputTensorSegment, getMapping());
-				previewHandler.updateValidationPreview(item.input, outputDenoise, outputSegment, headless(), outputHandler, isStopped() || isCanceled());
+				previewHandler.updateValidationPreview(input, outputDenoise, outputSegment, headless(), outputHandler, isStopped() || isCanceled());
 //			updateHistoryImage(output);
 			}
 			fetchedTensors.forEach(Tensor::close);
-			tensorLearningPhase.close();
 
-			if (stopTraining || Thread.interrupted() || isCanceled()) {
+			if (stopTraining || Thread.interrupted() || isCanceled() || validationScheduler.outOfTime(start, i + 1)) {
 				i++;
 				break;
 			}
@@ -629,6 +703,13 @@ public class DenoiSegTraining implements ModelZooTraining {
 		return stopTraining;
 	}
 
+	/**
+	 * @return whether the validation loss was computed in the last finished epoch, see {@link ValidationScheduler}
+	 */
+	public boolean isValidationEpoch() {
+		return validationEpoch;
+	}
+
 	public int getStepsFinished() {
 		return stepsFinished;
 	}
@@ -708,6 +789,7 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 	public void dispose() {
 		if(output() != null) output().dispose();
+		if(inputHandler != null) inputHandler.dispose();
 	}
 
 }
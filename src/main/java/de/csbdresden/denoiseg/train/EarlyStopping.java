@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.scijava.log.LogService;
+
+import java.io.IOException;
+
+/**
+ * Stops training once the validation loss did not improve by more than
+ * {@code minDelta} for {@code patience} validations. With
+ * {@code restoreBestWeights} the best checkpoint becomes the most recent
+ * model, otherwise the most recent model is the one of the last epoch.
+ */
+public class EarlyStopping {
+
+	private final LogService logService;
+	private final int patience;
+	private final float minDelta;
+	private final boolean restoreBestWeights;
+	private float best = Float.MAX_VALUE;
+	private int wait = 0;
+	private int stoppedEpoch = -1;
+	private int epoch = 0;
+
+	public EarlyStopping(LogService logService, int patience, float minDelta, boolean restoreBestWeights) {
+		this.logService = logService;
+		this.patience = patience;
+		this.minDelta = Math.abs(minDelta);
+		this.restoreBestWeights = restoreBestWeights;
+	}
+
+	public void onEpochDone(DenoiSegTraining training) {
+		epoch++;
+		if(!training.isValidationEpoch()) return;
+		float loss = training.output().getCurrentValidationLoss();
+		if(loss < best - minDelta) {
+			best = loss;
+			wait = 0;
+			return;
+		}
+		wait += 1;
+		if(wait < patience || training.isStopped()) return;
+		stoppedEpoch = epoch;
+		logService.info("Early stopping after epoch " + epoch + ", best validation loss: " + best);
+		training.stopTraining();
+	}
+
+	/**
+	 * Restores the best checkpoint if training was stopped early, called
+	 * after the checkpoint of the last epoch was saved.
+	 */
+	public void onTrainingDone(DenoiSegTraining training) {
+		if(!restoreBestWeights || stoppedEpoch < 0) return;
+		try {
+			training.output().restoreBestCheckpoint();
+		} catch (IOException e) {
+			logService.error("Could not restore best checkpoint: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the one based epoch after which training was stopped, {@code -1} if it was not stopped
+	 */
+	public int getStoppedEpoch() {
+		return stoppedEpoch;
+	}
+}
@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * {@link FloatAccess} backed by a direct or memory mapped {@link FloatBuffer}, used to keep
+ * large amounts of training data outside of the Java heap.
+ */
+class FloatBufferAccess implements FloatAccess {
+
+	private final FloatBuffer buffer;
+
+	FloatBufferAccess(int numEntities) {
+		this(ByteBuffer.allocateDirect(numEntities * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer());
+	}
+
+	FloatBufferAccess(FloatBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public float getValue(int index) {
+		return buffer.get(index);
+	}
+
+	@Override
+	public void setValue(int index, float value) {
+		buffer.put(index, value);
+	}
+
+	FloatBuffer getBuffer() {
+		return buffer;
+	}
+
+	static ArrayImg<FloatType, FloatBufferAccess> floats(long... dimensions) {
+		return floats(new FloatBufferAccess((int) Intervals.numElements(dimensions)), dimensions);
+	}
+
+	static ArrayImg<FloatType, FloatBufferAccess> floats(FloatBufferAccess access, long... dimensions) {
+		ArrayImg<FloatType, FloatBufferAccess> img = new ArrayImg<>(access, dimensions, new Fraction());
+		img.setLinkedType(new FloatType(img));
+		return img;
+	}
+}
@@ -30,22 +30,26 @@ package de.csbdresden.denoiseg.train;
 
 import de.csbdresden.n2v.ui.TrainingProgress;
 import io.scif.services.DatasetIOService;
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
 import net.imagej.modelzoo.consumer.converter.RealIntConverter;
 import net.imagej.ops.OpService;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.boundary.IntTypeBoundary;
-import net.imglib2.converter.Converter;
+import net.imglib2.boundary.LabelBoundaries;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
-import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
-import net.imglib2.view.composite.Composite;
 import org.scijava.Context;
 import org.scijava.event.EventService;
 import org.scijava.io.IOService;
@@ -55,12 +59,23 @@ import org.scijava.plugin.Parameter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class InputHandler {
 
@@ -90,7 +105,10 @@ public class InputHandler {
 	private final TrainingDataCollection<FloatType> validationData = new TrainingDataCollection<>();
 	private final TrainingDataCollection<FloatType> trainingData = new TrainingDataCollection<>();
 	private Collection subscribers;
-	private boolean canceled = false;
+	private volatile boolean canceled = false;
+	private TileStore tileStore;
+	private final List<TileStore> stores = new ArrayList<>();
+	private List<String> trainingCacheKeys = new ArrayList<>();
 
 	InputHandler(Context context, DenoiSegConfig config) {
 		this.config = config;
@@ -111,32 +129,16 @@ public class InputHandler {
 	}
 
 	private RandomAccessibleInterval<FloatType> convertToOneHot(RandomAccessibleInterval<IntType> labeling) {
-		Converter<IntType, FloatType> borderConverter = (input, output) -> {
-			if(input.get() != 0) output.setOne();
-			else output.setZero();
-		};
-		Converter<Composite< IntType >, FloatType > backgroundConverter = (input, output) -> {
-			if(input.get(0).get() != 0) output.setZero();
-			else {
-				if(input.get(1).get() == 0) output.setOne();
-				else output.setZero();
-			}
-		};
-		Converter<Composite< IntType >, FloatType > foregroundConverter = (input, output) -> {
-			if(input.get(0).get() != 0) output.setZero();
-			else {
-				if(input.get(1).get() != 0) output.setOne();
-				else output.setZero();
-			}
-		};
-		RandomAccessibleInterval<IntType> intBorder = new IntTypeBoundary<>(labeling);
-
-		RandomAccessibleInterval<FloatType> border = Converters.convert(intBorder, borderConverter, new FloatType());
-		RandomAccessibleInterval<FloatType> background = Converters.compose(
-				Arrays.asList(intBorder, labeling), backgroundConverter, new FloatType());
-		RandomAccessibleInterval<FloatType> foreground = Converters.compose(
-				Arrays.asList(intBorder, labeling), foregroundConverter, new FloatType());
-		return Views.stack(background, foreground, border);
+		// with several loader threads the images are already converted in parallel
+		RandomAccessibleInterval<UnsignedByteType> border = LabelBoundaries.compute(labeling,
+				config.getLoaderThreads() == 1 && config.getThreadBudget() > 1 ? ForkJoinPool.commonPool() : null);
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(Intervals.dimensionsAsLongArray(labeling));
+		LoopBuilder.setImages(Views.zeroMin(border), Views.zeroMin(labeling), classes).multiThreaded().forEachPixel((b, l, c) -> {
+			if(b.get() != 0) c.set(OneHotLabels.BORDER);
+			else if(l.get() != 0) c.set(OneHotLabels.FOREGROUND);
+			else c.set(OneHotLabels.BACKGROUND);
+		});
+		return new OneHotLabels(classes);
 	}
 
 	private IntervalView<FloatType> addTwoDimensions(RandomAccessibleInterval<FloatType> channel0) {
@@ -144,32 +146,38 @@ public class InputHandler {
 	}
 
 	private <T extends RealType<T>> RandomAccessibleInterval<FloatType> convertToFloat(RandomAccessibleInterval<T> img) {
+		// the tiles are copied into the tile store anyway
+		if(config.getTileStorage() == DenoiSegConfig.TileStorage.MAPPED || config.getNativeSourceImages()) {
+			return Converters.convert(unwrap(img), new RealFloatConverter<T>(), new FloatType());
+		}
 		return opService.copy().rai( (RandomAccessibleInterval<FloatType>)Views.iterable(Converters.convert(img, new RealFloatConverter<T>(), new FloatType())));
 	}
 
+	/**
+	 * @return the image below the {@link Dataset} and {@link ImgPlus} wrappers, patches are copied
+	 * row by row from array, planar and cell images, see {@link PatchCopy}
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T>> RandomAccessibleInterval<T> unwrap(RandomAccessibleInterval<T> img) {
+		RandomAccessibleInterval<?> res = img;
+		if(res instanceof Dataset) res = ((Dataset) res).getImgPlus();
+		if(res instanceof ImgPlus) res = ((ImgPlus<?>) res).getImg();
+		return (RandomAccessibleInterval<T>) res;
+	}
+
+	/**
+	 * What the tiles loaded by one of the add methods are used for.
+	 */
+	private enum Usage {
+		TRAINING, TRAINING_AND_VALIDATION, VALIDATION
+	}
+
 	public void addTrainingData(File trainingRawData, File trainingLabelingData) throws IOException {
 
 		logService.info( "Tile training data.." );
 		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training data" );
 
-		unregisterIOEvent();
-
-		for (File file : trainingRawData.listFiles()) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
-//					System.out.println(file.getAbsolutePath());
-
-			// TODO roll-back when scifio version 0.41.2
-			//Img image = (Img) ioService.open(file.getAbsolutePath());
-			Img image = (Img) datasetIOService.open(file.getAbsolutePath());
-
-			if(image == null) continue;
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, trainingLabelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addTrainingData(imageFloat, labeling);
-		}
-
-		registerIOEvent();
+		load(listFiles(trainingRawData), trainingLabelingData, Usage.TRAINING);
 	}
 
 	public void addTrainingAndValidationData(File rawData, File labelingData) throws IOException {
@@ -177,43 +185,176 @@ public class InputHandler {
 		logService.info( "Tile training and validation data.." );
 		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training and validation data" );
 
-		unregisterIOEvent();
+		List<File> files = listFiles(rawData);
+		shuffle(files, config.getSeed(), 0);
+		load(files, labelingData, Usage.TRAINING_AND_VALIDATION);
+	}
 
-		List<File> files = Arrays.asList(Objects.requireNonNull(rawData.listFiles()));
-		Collections.shuffle(files);
+	public void addValidationData(File validationRawData, File validationLabelingData) throws IOException {
+
+		logService.info( "Tile validation data.." );
+		if(dialog != null) dialog.setCurrentTaskMessage("Tiling validation data" );
+
+		load(listFiles(validationRawData), validationLabelingData, Usage.VALIDATION);
+	}
+
+	private static List<File> listFiles(File directory) {
+		File[] files = Objects.requireNonNull(directory.listFiles());
+		Arrays.sort(files);
+		List<File> res = new ArrayList<>();
 		for (File file : files) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
-//					System.out.println(file.getAbsolutePath());
+			if(!file.isDirectory()) res.add(file);
+		}
+		return res;
+	}
 
-			// TODO roll-back when scifio version 0.41.2
-			//Img image = (Img) ioService.open(file.getAbsolutePath());
-			Img image = (Img) datasetIOService.open(file.getAbsolutePath());
+	/**
+	 * Opens, converts and tiles the given files on {@link DenoiSegConfig#getLoaderThreads()}
+	 * threads and merges the tiles in the order of {@code files}. At most two
+	 * images per thread are loaded ahead of the next one to merge. Files
+	 * without labeling are used as unlabeled training data or skipped for
+	 * validation. With a cache directory, the tiles are read from the cache
+	 * if they were loaded from the same files before.
+	 */
+	private void load(List<File> files, File labelingDirectory, Usage usage) throws IOException {
+		LabelingIndex index = new LabelingIndex(labelingDirectory, config.getLabelingPrefix(), config.getLabelingSuffix());
+		List<File> unmatched = index.unmatchedRawFiles(files);
+		if(!unmatched.isEmpty()) {
+			if(usage == Usage.VALIDATION) {
+				logService.warn(unmatched.size() + " image(s) without labeling are ignored: " + names(unmatched));
+				files = new ArrayList<>(files);
+				files.removeAll(unmatched);
+			} else {
+				logService.info(unmatched.size() + " image(s) without labeling are used as unlabeled data: " + names(unmatched));
+			}
+		}
+		List<File> unusedLabelings = index.unmatchedLabelingFiles(files);
+		if(!unusedLabelings.isEmpty()) {
+			logService.warn(unusedLabelings.size() + " file(s) in " + labelingDirectory + " do not belong to any image: " + names(unusedLabelings));
+		}
 
-			if(image == null) continue;
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, labelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addTrainingAndValidationData(imageFloat, labeling);
+		DatasetCache cache = config.getCacheDirectory() == null ? null : new DatasetCache(config.getCacheDirectory());
+		// the split into training and validation data depends on the shuffled file order, which is random without a seed
+		if(cache != null && usage == Usage.TRAINING_AND_VALIDATION && config.getSeed() == null) {
+			logService.info("Tiles are not cached, splitting them into training and validation data is only reproducible with a seed");
+			cache = null;
+		}
+		String variant = usage == Usage.TRAINING_AND_VALIDATION ? usage.name() + ":" + config.getSeed() : usage.name();
+		String key = cache == null ? null : cache.key(variant, files, index, config);
+		if(usage != Usage.VALIDATION) {
+			if(key == null) trainingCacheKeys = null;
+			else if(trainingCacheKeys != null) trainingCacheKeys.add(key);
 		}
+		if(cache != null && loadCached(cache, key, usage)) return;
 
-		registerIOEvent();
-	}
+		TileStore store = null;
+		List<DatasetCache.ImageEntries> entries = new ArrayList<>();
+		if(cache != null) {
+			store = TileStore.create(DatasetCache.partFile(cache.tilesFile(key)));
+			stores.add(store);
+		}
+		TileStore target = store;
 
-	private RandomAccessibleInterval<IntType> getLabeling(File rawFile, File labelingDirectory) {
-		for (File labeling : labelingDirectory.listFiles()) {
-			if(canceled) break;
-			if(rawFile.getName().equals(labeling.getName())) {
-				try {
-					// TODO roll-back when scifio version 0.41.2
-					//RandomAccessibleInterval label = (Img) ioService.open(labeling.getAbsolutePath());
-					RandomAccessibleInterval label = (Img) datasetIOService.open(labeling.getAbsolutePath());
+		unregisterIOEvent();
+		int numThreads = Math.max(1, config.getLoaderThreads());
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		Deque<Future<ImageTiles>> pending = new ArrayDeque<>();
+		Iterator<File> remaining = files.iterator();
+		boolean complete = false;
+		try {
+			while(!canceled) {
+				while(remaining.hasNext() && pending.size() < 2 * numThreads) {
+					File file = remaining.next();
+					pending.add(executor.submit(() -> load(file, index.get(file), target, usage)));
+				}
+				if(pending.isEmpty()) {
+					complete = true;
+					break;
+				}
+				ImageTiles tiles = pending.remove().get();
+				if(tiles == null || canceled) continue;
+				merge(tiles, usage);
+				if(tiles.entries != null) entries.add(tiles.entries);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			registerIOEvent();
+			if(store != null && !complete) {
+				stores.remove(store);
+				store.close();
+				Files.deleteIfExists(DatasetCache.partFile(cache.tilesFile(key)));
+			}
+		}
+		if(store != null && complete) {
+			stores.remove(store);
+			cache.writeIndex(key, store, entries);
+			logService.info("Cached training tiles as " + key);
+		}
+	}
 
-					return convertToInt(label);
-				} catch (IOException e) {
-					e.printStackTrace();
+	private boolean loadCached(DatasetCache cache, String key, Usage usage) throws IOException {
+		List<DatasetCache.ImageEntries> images = cache.readIndex(key);
+		if(images == null) return false;
+		TileStore store = TileStore.open(cache.tilesFile(key));
+		stores.add(store);
+		for (DatasetCache.ImageEntries image : images) {
+			if(image.labeled) {
+				TrainingDataCollection<FloatType> labeled = new TrainingDataCollection<>();
+				for (int i = 0; i < image.inputs.size(); i++) {
+					labeled.add(labeledTile(store.floats(image.inputs.get(i)), new OneHotLabels(store.bytes(image.segments.get(i)))));
+				}
+				merge(new ImageTiles(labeled, Collections.emptyList(), null), usage);
+			} else {
+				List<RandomAccessibleInterval<FloatType>> unlabeled = new ArrayList<>();
+				for (TileStore.Entry entry : image.inputs) {
+					unlabeled.add(addTwoDimensions(store.floats(entry)));
 				}
+				merge(new ImageTiles(null, unlabeled, null), usage);
 			}
 		}
+		logService.info("Loaded training tiles of " + images.size() + " image(s) from cache " + key);
+		return true;
+	}
+
+	private static String names(List<File> files) {
+		int numShown = Math.min(files.size(), 10);
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < numShown; i++) {
+			if(i > 0) res.append(", ");
+			res.append(files.get(i).getName());
+		}
+		if(numShown < files.size()) res.append(", ..");
+		return res.toString();
+	}
+
+	private ImageTiles load(File file, File labelingFile, TileStore store, Usage usage) throws IOException {
+		if(canceled) return null;
+		RandomAccessibleInterval<IntType> labeling = labelingFile == null ? null : openLabeling(labelingFile);
+
+		// TODO roll-back when scifio version 0.41.2
+		//Img image = (Img) ioService.open(file.getAbsolutePath());
+		Img image = (Img) datasetIOService.open(file.getAbsolutePath());
+
+		if(image == null || canceled) return null;
+		if(store == null && config.getTileStorage() == DenoiSegConfig.TileStorage.MAPPED) store = getTileStore();
+		return tile(convertToFloat(image), labeling, store, usage);
+	}
+
+	private RandomAccessibleInterval<IntType> openLabeling(File labeling) {
+		try {
+			// TODO roll-back when scifio version 0.41.2
+			//RandomAccessibleInterval label = (Img) ioService.open(labeling.getAbsolutePath());
+			RandomAccessibleInterval label = (Img) datasetIOService.open(labeling.getAbsolutePath());
+
+			return convertToInt(label);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		return null;
 	}
 
@@ -221,83 +362,138 @@ public class InputHandler {
 		return Converters.convert(img, new RealIntConverter<T>(), new IntType());
 	}
 
-	public void addTrainingAndValidationData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
-
-		if (Thread.interrupted()) return;
-
-		logService.info("Training and validation image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
-//		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
+	/**
+	 * Tiles of one raw image, {@code labeled} is {@code null} if the image
+	 * has no labeling. {@code entries} locates the tiles in a tile store, if
+	 * they were written to one.
+	 */
+	private static class ImageTiles {
+		final TrainingDataCollection<FloatType> labeled;
+		final List<RandomAccessibleInterval<FloatType>> unlabeled;
+		final DatasetCache.ImageEntries entries;
+
+		ImageTiles(TrainingDataCollection<FloatType> labeled, List<RandomAccessibleInterval<FloatType>> unlabeled, DatasetCache.ImageEntries entries) {
+			this.labeled = labeled;
+			this.unlabeled = unlabeled;
+			this.entries = entries;
+		}
+	}
 
+	/**
+	 * Tiles are overlapping if {@link DenoiSegConfig#getTileStride()} is
+	 * set. Training data is not tiled but split into whole images with
+	 * {@link DenoiSegConfig#getWholeImageSampling()}.
+	 *
+	 * @param store keeps the tiles if not {@code null}, otherwise the tiles are views on {@code raw} and {@code labeling}
+	 */
+	private ImageTiles tile(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling, TileStore store, Usage usage) throws IOException {
+		DatasetCache.ImageEntries entries = store == null ? null : new DatasetCache.ImageEntries(labeling != null);
+		boolean wholeImages = usage == Usage.TRAINING && config.getWholeImageSampling();
 		if(labeling != null) {
 			RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(labeling);
-			TrainingDataCollection<FloatType> tiles = DenoiSegDataGenerator.createTiles(raw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
-//			display(tiles);
-			int numValidation = (int) (tiles.size() * 0.05);
-			int i = 0;
+			TrainingDataCollection<FloatType> tiles = wholeImages ?
+					DenoiSegDataGenerator.createImages(raw, oneHot, config.getTrainDimensions()) :
+					DenoiSegDataGenerator.createTiles(raw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), config.getTileStride(), logService);
+			TrainingDataCollection<FloatType> labeled = new TrainingDataCollection<>();
 			for (TrainingData<FloatType> tile : tiles) {
-				RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(tile.input);
-				RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(tile.outSegment);
-//				logService.info("Tile dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(channel0)));
-				if(i++ < numValidation) {
-					validationData.add(new TrainingData<>(channel0, channel1));
-				} else {
-					trainingLabeled.add(new TrainingData<>(channel0, channel1));
+				if(store == null) {
+					labeled.add(labeledTile(tile.input, tile.outSegment));
+					continue;
 				}
+				long[] dims = Intervals.dimensionsAsLongArray(tile.outSegment);
+				ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(Arrays.copyOf(dims, dims.length - 1));
+				OneHotLabels.toClasses(tile.outSegment, classes);
+				TileStore.Entry input = store.addFloats(tile.input);
+				TileStore.Entry segment = store.addBytes(classes);
+				entries.inputs.add(input);
+				entries.segments.add(segment);
+				labeled.add(labeledTile(store.floats(input), new OneHotLabels(store.bytes(segment))));
 			}
-		} else {
-			List<RandomAccessibleInterval<FloatType>> tiles = DenoiSegDataGenerator.createTiles(raw, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
-			for (RandomAccessibleInterval<FloatType> tile : tiles) {
-				trainingUnlabeled.add(addTwoDimensions(tile));
+			return new ImageTiles(labeled, Collections.emptyList(), entries);
+		}
+		List<RandomAccessibleInterval<FloatType>> tiles = wholeImages ?
+				DenoiSegDataGenerator.createImages(raw, config.getTrainDimensions()) :
+				DenoiSegDataGenerator.createTiles(raw, config.getTrainDimensions(), config.getTrainPatchShape(), config.getTileStride(), logService);
+		List<RandomAccessibleInterval<FloatType>> unlabeled = new ArrayList<>();
+		for (RandomAccessibleInterval<FloatType> tile : tiles) {
+			if(store == null) {
+				unlabeled.add(addTwoDimensions(tile));
+				continue;
 			}
+			TileStore.Entry input = store.addFloats(tile);
+			entries.inputs.add(input);
+			unlabeled.add(addTwoDimensions(store.floats(input)));
 		}
+		return new ImageTiles(null, unlabeled, entries);
 	}
 
-	public void addTrainingData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+	private TrainingData<FloatType> labeledTile(RandomAccessibleInterval<FloatType> input, RandomAccessibleInterval<FloatType> oneHot) {
+		RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(input);
+		RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(oneHot);
+//		logService.info("Tile dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(channel0)));
+		return new TrainingData<>(channel0, channel1);
+	}
 
-		if (Thread.interrupted()) return;
+	/**
+	 * Tiles image data which was not loaded from files, these tiles are not cached.
+	 */
+	private ImageTiles tile(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling, Usage usage) {
+		try {
+			return tile(raw, labeling, config.getTileStorage() == DenoiSegConfig.TileStorage.MAPPED ? getTileStore() : null, usage);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 
-//		logService.info("Training image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
-//		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
+	private synchronized TileStore getTileStore() throws IOException {
+		if(tileStore == null) {
+			tileStore = TileStore.createTemporary(config.getTileStoreDirectory());
+			stores.add(tileStore);
+			logService.info("Storing training tiles in " + config.getTileStoreDirectory());
+		}
+		return tileStore;
+	}
 
-		if(labeling != null) {
-			RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(labeling);
-			TrainingDataCollection<FloatType> tiles = DenoiSegDataGenerator.createTiles(raw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
-			for (TrainingData<FloatType> tile : tiles) {
-				RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(tile.input);
-				RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(tile.outSegment);
-//				logService.info("Tile dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(channel0)));
-				trainingLabeled.add(new TrainingData<>(channel0, channel1));
-			}
-		} else {
-			List<RandomAccessibleInterval<FloatType>> tiles = DenoiSegDataGenerator.createTiles(raw, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
-			for (RandomAccessibleInterval<FloatType> tile : tiles) {
-				trainingUnlabeled.add(addTwoDimensions(tile));
-			}
+	private void merge(ImageTiles tiles, Usage usage) {
+		switch (usage) {
+			case TRAINING:
+				if(tiles.labeled != null) trainingLabeled.addAll(tiles.labeled);
+				trainingUnlabeled.addAll(tiles.unlabeled);
+				break;
+			case TRAINING_AND_VALIDATION:
+				if(tiles.labeled != null) {
+					int numValidation = (int) (tiles.labeled.size() * 0.05);
+					validationData.addAll(tiles.labeled.subList(0, numValidation));
+					trainingLabeled.addAll(tiles.labeled.subList(numValidation, tiles.labeled.size()));
+				}
+				trainingUnlabeled.addAll(tiles.unlabeled);
+				break;
+			case VALIDATION:
+				if(tiles.labeled != null) validationData.addAll(tiles.labeled);
+				break;
 		}
 	}
 
-	public void addValidationData(File validationRawData, File validationLabelingData) throws IOException {
+	public void addTrainingAndValidationData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
 
-		logService.info( "Tile validation data.." );
-		if(dialog != null) dialog.setCurrentTaskMessage("Tiling validation data" );
+		if (Thread.interrupted()) return;
 
-		unregisterIOEvent();
+		logService.info("Training and validation image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
+//		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
 
-		for (File file : validationRawData.listFiles()) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
+		trainingCacheKeys = null;
+		merge(tile(raw, labeling, Usage.TRAINING_AND_VALIDATION), Usage.TRAINING_AND_VALIDATION);
+	}
 
-			// TODO roll-back when scifio version 0.41.2
-			//Img image = (Img) ioService.open(file.getAbsolutePath());
-			Img image = (Img) datasetIOService.open(file.getAbsolutePath());
+	public void addTrainingData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
 
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, validationLabelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addValidationData(imageFloat, labeling);
-		}
+		if (Thread.interrupted()) return;
 
-		registerIOEvent();
+//		logService.info("Training image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
+//		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
 
+		trainingCacheKeys = null;
+		merge(tile(raw, labeling, Usage.TRAINING), Usage.TRAINING);
 	}
 
 	public void addValidationData(RandomAccessibleInterval<FloatType> validationRaw, RandomAccessibleInterval<IntType> validationLabeling) {
@@ -310,16 +506,7 @@ public class InputHandler {
 
 		//		logService.info("Validation image dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(validation)));
 
-		RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(validationLabeling);
-
-		TrainingDataCollection<FloatType> tiles =
-				DenoiSegDataGenerator.createTiles(validationRaw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
-//		uiService.show(tiles);
-		for (TrainingData<FloatType> pair : tiles) {
-			RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(pair.input);
-			RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(pair.outSegment);
-			validationData.add(new TrainingData<>(channel0, channel1));
-		}
+		merge(tile(validationRaw, validationLabeling, Usage.VALIDATION), Usage.VALIDATION);
 	}
 
 	private RandomAccessibleInterval<FloatType> addBatchDimension(RandomAccessibleInterval<FloatType> img) {
@@ -327,18 +514,32 @@ public class InputHandler {
 		return Views.moveAxis(img, img.numDimensions()-1, img.numDimensions()-2);
 	}
 
+	/**
+	 * Shuffles {@code list} reproducibly if {@code seed} is set, {@code salt}
+	 * gives lists shuffled with the same seed independent orders.
+	 */
+	static void shuffle(List<?> list, Long seed, long salt) {
+		Collections.shuffle(list, seed == null ? new Random() : new Random(seed + salt));
+	}
+
 	void finalizeTrainingData() {
-		Collections.shuffle(validationData);
+		shuffle(validationData, config.getSeed(), 1);
 		trainingData.clear();
 		trainingData.addAll(trainingLabeled);
-		CellImgFactory<FloatType> factory = new CellImgFactory<>(new FloatType());
+		OneHotLabels unlabeled = null;
 		for (RandomAccessibleInterval<FloatType> raw : trainingUnlabeled) {
-			long[] dims = new long[raw.numDimensions()];
-			raw.dimensions(dims);
-			dims[dims.length-1] = 3;
-			trainingData.add(new TrainingData<>(raw, factory.create(dims)));
+			long[] dims = new long[raw.numDimensions() - 1];
+			for (int d = 0; d < dims.length; d++) {
+				dims[d] = raw.dimension(d);
+			}
+			if(unlabeled == null || !Arrays.equals(dims, Intervals.dimensionsAsLongArray(unlabeled.getClasses()))) {
+				ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(dims);
+				Arrays.fill(classes.update(null).getCurrentStorageArray(), OneHotLabels.UNLABELED);
+				unlabeled = new OneHotLabels(classes);
+			}
+			trainingData.add(new TrainingData<>(raw, unlabeled));
 		}
-		Collections.shuffle(trainingData);
+		shuffle(trainingData, config.getSeed(), 2);
 	}
 
 	TrainingDataCollection<FloatType> getTrainingData() {
@@ -356,4 +557,27 @@ public class InputHandler {
 	public void cancel() {
 		this.canceled = true;
 	}
+
+	/**
+	 * Closes the tile stores and deletes temporary tile files, tiles which are still referenced stay readable until they
+	 * are garbage collected.
+	 */
+	public synchronized void dispose() {
+		for (TileStore store : stores) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				logService.warn("Could not close tile store: " + e.getMessage());
+			}
+		}
+		stores.clear();
+		tileStore = null;
+	}
+
+	/**
+	 * @return the cache keys of all training data in the order it was added or {@code null} if some of it is not cached
+	 */
+	List<String> getTrainingCacheKeys() {
+		return trainingCacheKeys;
+	}
 }
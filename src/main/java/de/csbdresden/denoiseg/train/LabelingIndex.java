@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps raw image files to the labeling files of one directory, listed once.
+ * A labeling file belongs to the raw file with the same name after removing
+ * {@code prefix} from the start and {@code suffix} from the end of its name
+ * without extension, e.g. {@code mask_img01_labels.tif} belongs to
+ * {@code img01.tif} for prefix {@code mask_} and suffix {@code _labels}.
+ */
+class LabelingIndex {
+
+	private final Map<String, File> labelings = new HashMap<>();
+	private final List<File> ignored = new ArrayList<>();
+
+	LabelingIndex(File directory, String prefix, String suffix) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+			for (Path path : stream) {
+				File file = path.toFile();
+				String name = rawName(file.getName(), prefix, suffix);
+				if(name == null) {
+					ignored.add(file);
+					continue;
+				}
+				File other = labelings.get(name);
+				if(other == null || file.getName().compareTo(other.getName()) < 0) {
+					labelings.put(name, file);
+					if(other != null) ignored.add(other);
+				} else {
+					ignored.add(file);
+				}
+			}
+		}
+	}
+
+	private static String rawName(String labelingName, String prefix, String suffix) {
+		int extension = labelingName.lastIndexOf('.');
+		if(extension < 0) extension = labelingName.length();
+		String stem = labelingName.substring(0, extension);
+		if(!stem.startsWith(prefix) || !stem.endsWith(suffix) || stem.length() < prefix.length() + suffix.length()) return null;
+		return stem.substring(prefix.length(), stem.length() - suffix.length()) + labelingName.substring(extension);
+	}
+
+	/**
+	 * @return the labeling file of {@code rawFile} or {@code null} if there is none
+	 */
+	File get(File rawFile) {
+		return labelings.get(rawFile.getName());
+	}
+
+	/**
+	 * @return the files of {@code rawFiles} without labeling
+	 */
+	List<File> unmatchedRawFiles(Collection<File> rawFiles) {
+		List<File> res = new ArrayList<>();
+		for (File file : rawFiles) {
+			if(get(file) == null) res.add(file);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the files of the labeling directory which belong to none of {@code rawFiles}
+	 */
+	List<File> unmatchedLabelingFiles(Collection<File> rawFiles) {
+		Set<String> names = new HashSet<>();
+		for (File file : rawFiles) {
+			names.add(file.getName());
+		}
+		List<File> res = new ArrayList<>(ignored);
+		for (Map.Entry<String, File> entry : labelings.entrySet()) {
+			if(!names.contains(entry.getKey())) res.add(entry.getValue());
+		}
+		res.sort(null);
+		return res;
+	}
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Mean and variance of a set of images computed in a single pass. Each image
+ * is accumulated with Welford's algorithm, the partial results are merged
+ * with the pairwise update of Chan et al. in image order, so the result does
+ * not depend on the number of threads.
+ */
+class NormalizationStatistics {
+
+	private long count;
+	private double mean;
+	private double m2;
+
+	void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+	}
+
+	void merge(NormalizationStatistics other) {
+		if(other.count == 0) return;
+		if(count == 0) {
+			count = other.count;
+			mean = other.mean;
+			m2 = other.m2;
+			return;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		count = total;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(count);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+	}
+
+	static NormalizationStatistics read(DataInput in) throws IOException {
+		NormalizationStatistics res = new NormalizationStatistics();
+		res.count = in.readLong();
+		res.mean = in.readDouble();
+		res.m2 = in.readDouble();
+		return res;
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sample variance (normalized by {@code n - 1})
+	 */
+	double getVariance() {
+		return count > 1 ? m2 / (count - 1) : 0;
+	}
+
+	double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @param fraction expected fraction of pixels taken into account, pixels are picked at random for values below one
+	 * @param seed     seed of the pixel sampling
+	 * @param pool     pool computing the images in parallel, the images are computed on the calling thread if null
+	 */
+	static <T extends RealType<T>> NormalizationStatistics compute(List<? extends RandomAccessibleInterval<T>> images, double fraction, long seed, ForkJoinPool pool) {
+		if(!(fraction > 0 && fraction <= 1)) {
+			throw new IllegalArgumentException("Normalization sample fraction must be in (0, 1]: " + fraction);
+		}
+		NormalizationStatistics[] partial = new NormalizationStatistics[images.size()];
+		IntConsumer computeImage = i -> partial[i] = compute(images.get(i), fraction, new SplittableRandom(seed + i));
+		if(pool != null && partial.length > 1) {
+			pool.submit(() -> IntStream.range(0, partial.length).parallel().forEach(computeImage)).join();
+		} else {
+			IntStream.range(0, partial.length).forEach(computeImage);
+		}
+		NormalizationStatistics res = new NormalizationStatistics();
+		for (NormalizationStatistics stats : partial) {
+			res.merge(stats);
+		}
+		return res;
+	}
+
+	private static <T extends RealType<T>> NormalizationStatistics compute(RandomAccessibleInterval<T> image, double fraction, SplittableRandom random) {
+		NormalizationStatistics res = new NormalizationStatistics();
+		Cursor<T> cursor = Views.flatIterable(image).cursor();
+		if(fraction >= 1) {
+			while(cursor.hasNext()) {
+				res.add(cursor.next().getRealDouble());
+			}
+			return res;
+		}
+		// geometric gaps between sampled pixels, so skipped pixels are never read
+		double logSkip = Math.log1p(-fraction);
+		long remaining = 1;
+		for (int d = 0; d < image.numDimensions(); d++) {
+			remaining *= image.dimension(d);
+		}
+		while(true) {
+			long gap = (long) Math.floor(Math.log(1 - random.nextDouble()) / logSkip);
+			if(gap >= remaining) break;
+			cursor.jumpFwd(gap + 1);
+			remaining -= gap + 1;
+			res.add(cursor.get().getRealDouble());
+		}
+		return res;
+	}
+}
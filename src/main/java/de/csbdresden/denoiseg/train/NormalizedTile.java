@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.AbstractWrappedInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Normalized view of a training tile, {@code (value - mean) / stdDev}. Unlike
+ * a generic converter, {@link PatchCopy} applies the normalization while
+ * copying rows of the underlying storage, so tiles in a {@link TileStore} are
+ * normalized without being modified.
+ */
+class NormalizedTile extends AbstractWrappedInterval<RandomAccessibleInterval<FloatType>> implements RandomAccessibleInterval<FloatType> {
+
+	private final float mean;
+	private final float stdDev;
+	private final RandomAccessibleInterval<FloatType> converted;
+
+	NormalizedTile(RandomAccessibleInterval<FloatType> source, float mean, float stdDev) {
+		super(source);
+		this.mean = mean;
+		this.stdDev = stdDev;
+		converted = Converters.convert(source, (input, output) -> output.set((input.get() - mean) / stdDev), new FloatType());
+	}
+
+	float getMean() {
+		return mean;
+	}
+
+	float getStdDev() {
+		return stdDev;
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess() {
+		return converted.randomAccess();
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess(Interval interval) {
+		return converted.randomAccess(interval);
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Segmentation target with the channels background, foreground and border
+ * in the last dimension, stored as one class index byte per pixel. Pixels
+ * with the class index {@link #UNLABELED} are zero in all channels.
+ */
+class OneHotLabels extends AbstractInterval implements RandomAccessibleInterval<FloatType> {
+
+	static final byte BACKGROUND = 0;
+	static final byte FOREGROUND = 1;
+	static final byte BORDER = 2;
+	static final byte UNLABELED = 3;
+
+	static final int numClasses = 3;
+
+	private final ArrayImg<UnsignedByteType, ? extends ByteAccess> classes;
+
+	OneHotLabels(ArrayImg<UnsignedByteType, ? extends ByteAccess> classes) {
+		super(withChannels(classes));
+		this.classes = classes;
+	}
+
+	private static long[] withChannels(Interval classes) {
+		long[] dims = new long[classes.numDimensions() + 1];
+		classes.dimensions(dims);
+		dims[dims.length - 1] = numClasses;
+		return dims;
+	}
+
+	ArrayImg<UnsignedByteType, ? extends ByteAccess> getClasses() {
+		return classes;
+	}
+
+	/**
+	 * Writes the class index of each pixel of a one-hot image (channels in the last dimension) to {@code classes}.
+	 */
+	static void toClasses(RandomAccessibleInterval<FloatType> oneHot, RandomAccessibleInterval<UnsignedByteType> classes) {
+		LoopBuilder.setImages(classes).forEachPixel(c -> c.set(UNLABELED));
+		for (int i = 0; i < numClasses; i++) {
+			byte index = (byte) i;
+			LoopBuilder.setImages(Views.hyperSlice(oneHot, oneHot.numDimensions() - 1, i), classes).forEachPixel((value, c) -> {
+				if(value.get() != 0) c.set(index);
+			});
+		}
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess() {
+		return new OneHotAccess();
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess(Interval interval) {
+		return randomAccess();
+	}
+
+	private class OneHotAccess extends Point implements RandomAccess<FloatType> {
+
+		private final RandomAccess<UnsignedByteType> classAccess = classes.randomAccess();
+		private final FloatType value = new FloatType();
+
+		OneHotAccess() {
+			super(OneHotLabels.this.numDimensions());
+		}
+
+		@Override
+		public FloatType get() {
+			int channel = n - 1;
+			for (int d = 0; d < channel; d++) {
+				classAccess.setPosition(position[d], d);
+			}
+			value.set(classAccess.get().get() == position[channel] ? 1 : 0);
+			return value;
+		}
+
+		@Override
+		public OneHotAccess copy() {
+			OneHotAccess copy = new OneHotAccess();
+			copy.setPosition(this);
+			return copy;
+		}
+
+		@Override
+		public OneHotAccess copyRandomAccess() {
+			return copy();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+
+import java.util.Arrays;
+
+/**
+ * Scratch memory for sampling and manipulating a single patch, channels last
+ * and x fastest. Each worker preparing patches uses its own instance.
+ */
+class PatchBuffers {
+
+	private final int patchSize;
+	private final int[] patchDimensions;
+
+	final float[] input;
+	final float[] outDenoise;
+	final float[] outSegment;
+
+	final StratifiedCoordinates blindSpots;
+	final int[] blindSpotIndices;
+	final float[] blindSpotValues;
+	final int[] blindSpotPosition;
+
+	PatchBuffers(Dimensions patchShape, long blindSpotBoxSize) {
+		int n = patchShape.numDimensions();
+		patchDimensions = new int[n];
+		int size = 1;
+		for (int d = 0; d < n; d++) {
+			patchDimensions[d] = (int) patchShape.dimension(d);
+			size *= patchShape.dimension(d);
+		}
+		patchSize = size;
+		input = new float[patchSize * BatchBuffers.inputChannels];
+		outDenoise = new float[patchSize * BatchBuffers.denoiseChannels];
+		outSegment = new float[patchSize * BatchBuffers.segmentChannels];
+		blindSpots = new StratifiedCoordinates(blindSpotBoxSize, patchShape);
+		blindSpotIndices = new int[blindSpots.capacity()];
+		blindSpotValues = new float[blindSpots.capacity()];
+		blindSpotPosition = new int[n];
+	}
+
+	int getPatchSize() {
+		return patchSize;
+	}
+
+	int[] getPatchDimensions() {
+		return patchDimensions;
+	}
+
+	void clear() {
+		Arrays.fill(outDenoise, 0);
+	}
+}
@@ -0,0 +1,512 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+import net.imglib2.view.Views;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.function.LongFunction;
+
+/**
+ * Copies patches out of training tiles into the per patch arrays (channels
+ * last, x fastest). The last dimension of a tile is the channel dimension,
+ * all other non-spatial dimensions have to be of size one. Tiles stored in
+ * float buffers, {@link OneHotLabels} or array, planar or cell images of the
+ * common integer and float types, directly or through {@link Tile}s and
+ * views which only select, translate, permute or invert axes, convert to
+ * float ({@link RealFloatConverter}) or normalize ({@link NormalizedTile}), are
+ * copied row by row. All other tiles are copied through a cursor.
+ */
+class PatchCopy {
+
+	private interface FloatData {
+		float get(long index);
+
+		default void get(long offset, float[] target, int targetOffset, int length) {
+			for (int i = 0; i < length; i++) {
+				target[targetOffset + i] = get(offset + i);
+			}
+		}
+	}
+
+	/**
+	 * Position of the source pixels in the storage of the underlying
+	 * image: {@code index(x) = base + sum_d steps[d] * x[d]}. For
+	 * {@link OneHotLabels}, {@code classes} expands the class index storage
+	 * to one channel and the channel of a source pixel is
+	 * {@code classBase + sum_d classSteps[d] * x[d]}. Values of a
+	 * {@link NormalizedTile} are normalized while reading.
+	 */
+	private static class Layout {
+		final FloatData data;
+		final LongFunction<FloatData> classes;
+		final NormalizedTile normalization;
+		final long base;
+		final long[] steps;
+		final long classBase;
+		final long[] classSteps;
+
+		Layout(FloatData data, LongFunction<FloatData> classes, NormalizedTile normalization, long base, long[] steps, long classBase, long[] classSteps) {
+			this.data = data;
+			this.classes = classes;
+			this.normalization = normalization;
+			this.base = base;
+			this.steps = steps;
+			this.classBase = classBase;
+			this.classSteps = classSteps;
+		}
+
+		FloatData data(long classIndex) {
+			FloatData res = classes == null ? data : classes.apply(classIndex);
+			return normalization == null ? res : normalized(res, normalization.getMean(), normalization.getStdDev());
+		}
+	}
+
+	/**
+	 * @param planeIndices rearranges each XY plane of the patch, see
+	 *                     {@link DenoiSegDataGenerator#dihedralIndices(int)},
+	 *                     {@code null} copies the plane as it is
+	 */
+	static <T extends RealType<T>> void copy(RandomAccessibleInterval<T> source, long[] min, int[] patchDims, float[] target, int numChannels, int[] planeIndices) {
+		Layout layout = layout(source);
+		if(layout != null && channelPerRow(layout, patchDims.length)) copyRows(layout, source, min, patchDims, target, numChannels, planeIndices);
+		else copyCursor(source, min, patchDims, target, numChannels, planeIndices);
+	}
+
+	/**
+	 * @return the storage layout of {@code source} or {@code null} if it is not backed by float storage or
+	 * the views on top of the storage can not be expressed as a linear index
+	 */
+	private static Layout layout(RandomAccessible<?> source) {
+		int n = source.numDimensions();
+		// position in the current image = offset + matrix * position in source
+		long[][] matrix = new long[n][n];
+		long[] offset = new long[n];
+		for (int d = 0; d < n; d++) {
+			matrix[d][d] = 1;
+		}
+		RandomAccessible<?> current = source;
+		NormalizedTile normalization = null;
+		while(!isStorage(current)) {
+			if(current instanceof NormalizedTile && normalization == null) {
+				normalization = (NormalizedTile) current;
+				current = normalization.getSource();
+			} else if(current instanceof ConvertedRandomAccessibleInterval
+					&& ((ConvertedRandomAccessibleInterval<?, ?>) current).getConverter() instanceof RealFloatConverter) {
+				current = ((ConvertedRandomAccessibleInterval<?, ?>) current).getSource();
+			} else if(current instanceof IntervalView) {
+				current = ((IntervalView<?>) current).getSource();
+			} else if(current instanceof MixedTransformView || current instanceof Tile) {
+				MixedTransform transform = current instanceof Tile ?
+						((Tile<?>) current).getTransformToSource() : ((MixedTransformView<?>) current).getTransformToSource();
+				int m = transform.numTargetDimensions();
+				long[][] nextMatrix = new long[m][n];
+				long[] nextOffset = new long[m];
+				for (int d = 0; d < m; d++) {
+					nextOffset[d] = transform.getTranslation(d);
+					if(transform.getComponentZero(d)) continue;
+					int component = transform.getComponentMapping(d);
+					long sign = transform.getComponentInversion(d) ? -1 : 1;
+					nextOffset[d] += sign * offset[component];
+					for (int k = 0; k < n; k++) {
+						nextMatrix[d][k] = sign * matrix[component][k];
+					}
+				}
+				matrix = nextMatrix;
+				offset = nextOffset;
+				current = current instanceof Tile ? ((Tile<?>) current).getImage() : ((MixedTransformView<?>) current).getSource();
+			} else {
+				return null;
+			}
+		}
+		long classBase = 0;
+		long[] classSteps = new long[n];
+		Img<?> img;
+		FloatData data = null;
+		LongFunction<FloatData> classes = null;
+		if(current instanceof OneHotLabels) {
+			ArrayImg<?, ?> classImg = ((OneHotLabels) current).getClasses();
+			classes = oneHot(classImg.update(null));
+			if(classes == null) return null;
+			img = classImg;
+			int channel = matrix.length - 1;
+			classBase = offset[channel];
+			classSteps = matrix[channel];
+		} else {
+			img = (Img<?>) current;
+			data = data((NativeImg<?, ?>) img);
+			if(data == null) return null;
+		}
+		long base = 0;
+		long[] steps = new long[n];
+		long stride = 1;
+		for (int d = 0; d < img.numDimensions(); d++) {
+			base += stride * offset[d];
+			for (int k = 0; k < n; k++) {
+				steps[k] += stride * matrix[d][k];
+			}
+			stride *= img.dimension(d);
+		}
+		return new Layout(data, classes, normalization, base, steps, classBase, classSteps);
+	}
+
+	/**
+	 * @return whether all pixels of a patch row belong to the same channel
+	 */
+	private static boolean channelPerRow(Layout layout, int numPatchDimensions) {
+		for (int d = 0; d < numPatchDimensions; d++) {
+			if(layout.classSteps[d] != 0) return false;
+		}
+		return true;
+	}
+
+	private static boolean isStorage(RandomAccessible<?> img) {
+		return img instanceof ArrayImg || img instanceof PlanarImg || img instanceof AbstractCellImg || img instanceof OneHotLabels;
+	}
+
+	/**
+	 * @return the values of {@code img} as float, indexed like a flat array with x fastest,
+	 * or {@code null} if the pixel type or the storage is not supported
+	 */
+	private static FloatData data(NativeImg<?, ?> img) {
+		Object type = img.createLinkedType();
+		if(img instanceof ArrayImg) return data(type, ((ArrayImg<?, ?>) img).update(null));
+		if(img instanceof PlanarImg) return planes((PlanarImg<?, ?>) img, type);
+		if(img instanceof AbstractCellImg) return cells((AbstractCellImg<?, ?, ?, ?>) img, type);
+		return null;
+	}
+
+	private static FloatData data(Object type, Object access) {
+		if(type instanceof FloatType && access instanceof FloatBufferAccess) {
+			FloatBuffer data = ((FloatBufferAccess) access).getBuffer().duplicate();
+			return new FloatData() {
+				@Override
+				public float get(long index) {
+					return data.get((int) index);
+				}
+
+				@Override
+				public void get(long offset, float[] target, int targetOffset, int length) {
+					data.position((int) offset);
+					data.get(target, targetOffset, length);
+				}
+			};
+		}
+		if(!(access instanceof ArrayDataAccess)) return null;
+		Object array = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+		if(type instanceof FloatType && array instanceof float[]) {
+			float[] data = (float[]) array;
+			return new FloatData() {
+				@Override
+				public float get(long index) {
+					return data[(int) index];
+				}
+
+				@Override
+				public void get(long offset, float[] target, int targetOffset, int length) {
+					System.arraycopy(data, (int) offset, target, targetOffset, length);
+				}
+			};
+		}
+		if(type instanceof DoubleType && array instanceof double[]) {
+			double[] data = (double[]) array;
+			return index -> (float) data[(int) index];
+		}
+		if(type instanceof IntType && array instanceof int[]) {
+			int[] data = (int[]) array;
+			return index -> data[(int) index];
+		}
+		if(type instanceof UnsignedIntType && array instanceof int[]) {
+			int[] data = (int[]) array;
+			return index -> data[(int) index] & 0xffffffffL;
+		}
+		if(type instanceof ShortType && array instanceof short[]) {
+			short[] data = (short[]) array;
+			return index -> data[(int) index];
+		}
+		if(type instanceof UnsignedShortType && array instanceof short[]) {
+			short[] data = (short[]) array;
+			return index -> data[(int) index] & 0xffff;
+		}
+		if(type instanceof ByteType && array instanceof byte[]) {
+			byte[] data = (byte[]) array;
+			return index -> data[(int) index];
+		}
+		if(type instanceof UnsignedByteType && array instanceof byte[]) {
+			byte[] data = (byte[]) array;
+			return index -> data[(int) index] & 0xff;
+		}
+		return null;
+	}
+
+	private static FloatData planes(PlanarImg<?, ?> img, Object type) {
+		FloatData[] planes = new FloatData[img.numSlices()];
+		for (int i = 0; i < planes.length; i++) {
+			planes[i] = data(type, img.getPlane(i));
+			if(planes[i] == null) return null;
+		}
+		long planeSize = img.dimension(0) * (img.numDimensions() > 1 ? img.dimension(1) : 1);
+		return new FloatData() {
+			@Override
+			public float get(long index) {
+				return planes[(int) (index / planeSize)].get(index % planeSize);
+			}
+
+			@Override
+			public void get(long offset, float[] target, int targetOffset, int length) {
+				while(length > 0) {
+					long inPlane = offset % planeSize;
+					int chunk = (int) Math.min(length, planeSize - inPlane);
+					planes[(int) (offset / planeSize)].get(inPlane, target, targetOffset, chunk);
+					offset += chunk;
+					targetOffset += chunk;
+					length -= chunk;
+				}
+			}
+		};
+	}
+
+	private static FloatData cells(AbstractCellImg<?, ?, ?, ?> img, Object type) {
+		if(data(type, img.getCells().firstElement().getData()) == null) return null;
+		CellGrid grid = img.getCellGrid();
+		RandomAccess<? extends Cell<?>> cells = img.getCells().randomAccess();
+		long[] imgDims = grid.getImgDimensions();
+		long[] position = new long[imgDims.length];
+		long[] cellPosition = new long[imgDims.length];
+		return new FloatData() {
+			private Cell<?> cell;
+			private FloatData cellData;
+
+			/** Moves to the cell containing the flat {@code index} and sets {@code position}. */
+			private void moveTo(long index) {
+				for (int d = 0; d < imgDims.length; d++) {
+					position[d] = index % imgDims[d];
+					index /= imgDims[d];
+				}
+				grid.getCellPosition(position, cellPosition);
+				cells.setPosition(cellPosition);
+				Cell<?> next = cells.get();
+				if(next != cell) {
+					cell = next;
+					cellData = data(type, cell.getData());
+				}
+			}
+
+			@Override
+			public float get(long index) {
+				moveTo(index);
+				return cellData.get(cell.globalPositionToIndex(position));
+			}
+
+			@Override
+			public void get(long offset, float[] target, int targetOffset, int length) {
+				while(length > 0) {
+					moveTo(offset);
+					int chunk = (int) Math.min(length, cell.max(0) - position[0] + 1);
+					cellData.get(cell.globalPositionToIndex(position), target, targetOffset, chunk);
+					offset += chunk;
+					targetOffset += chunk;
+					length -= chunk;
+				}
+			}
+		};
+	}
+
+	private static LongFunction<FloatData> oneHot(Object access) {
+		if(access instanceof ByteArray) {
+			byte[] classes = ((ByteArray) access).getCurrentStorageArray();
+			return classIndex -> oneHot(classes, classIndex);
+		}
+		if(access instanceof ByteBufferAccess) {
+			ByteBuffer classes = ((ByteBufferAccess) access).getBuffer();
+			return classIndex -> oneHot(classes, classIndex);
+		}
+		return null;
+	}
+
+	private static FloatData oneHot(byte[] classes, long classIndex) {
+		return new FloatData() {
+			@Override
+			public float get(long index) {
+				return classes[(int) index] == classIndex ? 1 : 0;
+			}
+
+			@Override
+			public void get(long offset, float[] target, int targetOffset, int length) {
+				int start = (int) offset;
+				for (int i = 0; i < length; i++) {
+					target[targetOffset + i] = classes[start + i] == classIndex ? 1 : 0;
+				}
+			}
+		};
+	}
+
+	private static FloatData normalized(FloatData data, float mean, float stdDev) {
+		return new FloatData() {
+			@Override
+			public float get(long index) {
+				return (data.get(index) - mean) / stdDev;
+			}
+
+			@Override
+			public void get(long offset, float[] target, int targetOffset, int length) {
+				data.get(offset, target, targetOffset, length);
+				for (int i = targetOffset; i < targetOffset + length; i++) {
+					target[i] = (target[i] - mean) / stdDev;
+				}
+			}
+		};
+	}
+
+	private static FloatData oneHot(ByteBuffer classes, long classIndex) {
+		return new FloatData() {
+			@Override
+			public float get(long index) {
+				return classes.get((int) index) == classIndex ? 1 : 0;
+			}
+
+			@Override
+			public void get(long offset, float[] target, int targetOffset, int length) {
+				int start = (int) offset;
+				for (int i = 0; i < length; i++) {
+					target[targetOffset + i] = classes.get(start + i) == classIndex ? 1 : 0;
+				}
+			}
+		};
+	}
+
+	private static void copyRows(Layout layout, RandomAccessibleInterval<?> source, long[] min, int[] patchDims, float[] target, int numChannels, int[] planeIndices) {
+		int n = patchDims.length;
+		long[] steps = layout.steps;
+		int width = patchDims[0];
+		int planeSize = width * patchDims[1];
+		int numRows = 1;
+		for (int d = 1; d < n; d++) {
+			numRows *= patchDims[d];
+		}
+		boolean contiguous = steps[0] == 1;
+		boolean direct = contiguous && numChannels == 1 && planeIndices == null;
+		float[] row = direct ? null : new float[width];
+		for (int c = 0; c < numChannels; c++) {
+			long channelOffset = layout.base + steps[0] * min[0];
+			long classIndex = layout.classBase;
+			int rest = c;
+			for (int d = n; d < steps.length; d++) {
+				int size = (int) source.dimension(d);
+				long position = min[d] + rest % size;
+				channelOffset += steps[d] * position;
+				classIndex += layout.classSteps[d] * position;
+				rest /= size;
+			}
+			FloatData data = layout.data(classIndex);
+			for (int r = 0; r < numRows; r++) {
+				long offset = channelOffset;
+				rest = r;
+				for (int d = 1; d < n; d++) {
+					offset += steps[d] * (min[d] + rest % patchDims[d]);
+					rest /= patchDims[d];
+				}
+				int patchOffset = r * width;
+				if(direct) {
+					data.get(offset, target, patchOffset, width);
+					continue;
+				}
+				if(contiguous) {
+					data.get(offset, row, 0, width);
+				} else {
+					for (int x = 0; x < width; x++) {
+						row[x] = data.get(offset + x * steps[0]);
+					}
+				}
+				if(planeIndices == null) {
+					for (int x = 0; x < width; x++) {
+						target[(patchOffset + x) * numChannels + c] = row[x];
+					}
+				} else {
+					int planeOffset = patchOffset - patchOffset % planeSize;
+					int inPlane = patchOffset - planeOffset;
+					for (int x = 0; x < width; x++) {
+						target[(planeOffset + planeIndices[inPlane + x]) * numChannels + c] = row[x];
+					}
+				}
+			}
+		}
+	}
+
+	private static <T extends RealType<T>> void copyCursor(RandomAccessibleInterval<T> source, long[] min, int[] patchDims, float[] target, int numChannels, int[] planeIndices) {
+		long[] max = new long[source.numDimensions()];
+		int patchSize = 1;
+		for (int d = 0; d < max.length; d++) {
+			if(d < patchDims.length) {
+				max[d] = min[d] + patchDims[d] - 1;
+				patchSize *= patchDims[d];
+			} else {
+				max[d] = source.max(d);
+			}
+		}
+		int planeSize = patchDims[0] * patchDims[1];
+		Cursor<T> cursor = Views.flatIterable(Views.interval(source, min, max)).cursor();
+		for (int c = 0; c < numChannels; c++) {
+			for (int offset = 0; offset < patchSize; offset += planeSize) {
+				for (int i = 0; i < planeSize; i++) {
+					int index = planeIndices == null ? i : planeIndices[i];
+					target[(offset + index) * numChannels + c] = cursor.next().getRealFloat();
+				}
+			}
+		}
+	}
+}
@@ -50,6 +50,8 @@ public class ReduceLearningRateOnPlateau {
 	}
 
 	public void reduceLearningRateOnPlateau(DenoiSegTraining training) {
+		// patience counts validations, epochs without a new validation loss are skipped
+		if(!training.isValidationEpoch()) return;
 		if(inCooldown()) {
 			cooldown_counter -= 1;
 			wait = 0;
@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generates one random coordinate per box of a regular grid covering the
+ * patch (stratified sampling of the blind-spot positions). Coordinates are
+ * stored in a flat array which is reused by every call to {@link #generate(SplittableRandom)}.
+ */
+class StratifiedCoordinates {
+
+	private final int numDimensions;
+	private final int boxSize;
+	private final int[] shape;
+	private final int[] boxCounts;
+	private final int[] box;
+	private final int[] coordinates;
+	private int size;
+
+	StratifiedCoordinates(long boxSize, Dimensions shape) {
+		this.numDimensions = shape.numDimensions();
+		this.boxSize = (int) boxSize;
+		this.shape = new int[numDimensions];
+		this.boxCounts = new int[numDimensions];
+		this.box = new int[numDimensions];
+		int numBoxes = 1;
+		for (int d = 0; d < numDimensions; d++) {
+			this.shape[d] = (int) shape.dimension(d);
+			boxCounts[d] = (int) Math.ceil(shape.dimension(d) / (float) boxSize);
+			numBoxes *= boxCounts[d];
+		}
+		coordinates = new int[numBoxes * numDimensions];
+	}
+
+	/**
+	 * @return the number of generated coordinates
+	 */
+	int generate(SplittableRandom random) {
+		size = 0;
+		Arrays.fill(box, 0);
+		int numBoxes = capacity();
+		for (int i = 0; i < numBoxes; i++) {
+			int offset = size * numDimensions;
+			boolean inside = true;
+			for (int d = 0; d < numDimensions; d++) {
+				int position = box[d] * boxSize + random.nextInt(boxSize);
+				coordinates[offset + d] = position;
+				inside &= position < shape[d];
+			}
+			if(inside) size++;
+			for (int d = 0; d < numDimensions && ++box[d] == boxCounts[d]; d++) {
+				box[d] = 0;
+			}
+		}
+		return size;
+	}
+
+	int numDimensions() {
+		return numDimensions;
+	}
+
+	/**
+	 * @return the maximum number of coordinates generated per call
+	 */
+	int capacity() {
+		return coordinates.length / numDimensions;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int get(int index, int d) {
+		return coordinates[index * numDimensions + d];
+	}
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.framework.ConfigProto;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * Thread pool settings of TensorFlow sessions. TensorFlow 1.x creates the
+ * inter-op pool and the intra-op pool of the CPU device once per process,
+ * sized by the options of the first session, so the settings only take
+ * effect if they are applied before any other session is created.
+ * <p>
+ * TensorFlow's threads inherit the CPU affinity of the process and Java
+ * cannot change it, a CPU list is only used to size the intra-op pool and
+ * to check the affinity the process was started with (e.g. by
+ * {@code taskset -c 0-7}).
+ * </p>
+ */
+public final class TensorFlowThreads {
+
+	private TensorFlowThreads() {
+	}
+
+	/**
+	 * @param intraOp threads used within an operation, {@code 0} lets TensorFlow decide
+	 * @param interOp operations run in parallel, {@code 0} lets TensorFlow decide
+	 * @return the serialized {@link ConfigProto}, {@code null} if both are {@code 0}
+	 */
+	public static byte[] configProto(int intraOp, int interOp) {
+		if(intraOp <= 0 && interOp <= 0) return null;
+		ConfigProto.Builder builder = ConfigProto.newBuilder();
+		if(intraOp > 0) builder.setIntraOpParallelismThreads(intraOp);
+		if(interOp > 0) builder.setInterOpParallelismThreads(interOp);
+		return builder.build().toByteArray();
+	}
+
+	public static Session createSession(Graph graph, int intraOp, int interOp) {
+		byte[] config = configProto(intraOp, interOp);
+		return config == null ? new Session(graph) : new Session(graph, config);
+	}
+
+	/**
+	 * Sizes the process wide thread pools by creating an empty session, for
+	 * sessions which are created without {@link ConfigProto} later, e.g. when
+	 * loading a model for prediction. Has no effect if a session was created
+	 * before.
+	 */
+	public static void configureProcess(int intraOp, int interOp) {
+		if(configProto(intraOp, interOp) == null) return;
+		try (Graph graph = new Graph();
+		     Session ignored = createSession(graph, intraOp, interOp)) {
+			// the thread pools are created with the session
+		}
+	}
+
+	/**
+	 * @param cpuList CPUs in the Linux list format, e.g. {@code 0-3,8,10-11}
+	 */
+	public static BitSet parseCpuList(String cpuList) {
+		BitSet res = new BitSet();
+		for (String range : cpuList.trim().split(",")) {
+			if(range.trim().isEmpty()) continue;
+			String[] bounds = range.trim().split("-");
+			int first = Integer.parseInt(bounds[0].trim());
+			int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+			if(first < 0 || last < first) throw new IllegalArgumentException("Invalid CPU range " + range + " in " + cpuList);
+			res.set(first, last + 1);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the CPUs this process may run on, {@code null} if they are unknown (non Linux systems)
+	 */
+	static BitSet allowedCpus() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+				if(line.startsWith("Cpus_allowed_list:")) {
+					return parseCpuList(line.substring("Cpus_allowed_list:".length()));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+		return null;
+	}
+}
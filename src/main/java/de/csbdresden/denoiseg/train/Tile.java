@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.view.MixedTransformView;
+
+/**
+ * Training tile described by the image it belongs to and its offset in that
+ * image. The spatial dimensions of the tile are a window of the first
+ * dimensions of the image starting at the offset, all other dimensions of
+ * the image are fixed to the offset. A tile with channels keeps the last
+ * dimension of the image as its last dimension. Unlike a chain of views, a
+ * tile is a single transform of the image, {@link PatchCopy} resolves it to
+ * the storage of the image.
+ */
+class Tile<T> extends AbstractInterval implements RandomAccessibleInterval<T> {
+
+	private final RandomAccessibleInterval<T> image;
+	private final long[] offset;
+	private final MixedTransform transform;
+
+	/**
+	 * @param offset   position of the first pixel of the tile in all dimensions of {@code image}
+	 * @param shape    dimensions of the tile, including the channels if {@code channels} is set
+	 * @param channels whether the last dimension of the tile is the last dimension of {@code image}
+	 */
+	Tile(RandomAccessibleInterval<T> image, long[] offset, long[] shape, boolean channels) {
+		super(shape);
+		this.image = image;
+		this.offset = offset.clone();
+		int n = image.numDimensions();
+		int numSpatial = channels ? shape.length - 1 : shape.length;
+		int[] mapping = new int[n];
+		boolean[] zero = new boolean[n];
+		for (int d = 0; d < n; d++) {
+			if(d < numSpatial) mapping[d] = d;
+			else if(channels && d == n - 1) mapping[d] = numSpatial;
+			else zero[d] = true;
+		}
+		transform = new MixedTransform(shape.length, n);
+		transform.setComponentMapping(mapping);
+		transform.setComponentZero(zero);
+		transform.setTranslation(offset);
+	}
+
+	RandomAccessibleInterval<T> getImage() {
+		return image;
+	}
+
+	long[] getOffset() {
+		return offset.clone();
+	}
+
+	/**
+	 * @return the transform from tile to image coordinates
+	 */
+	MixedTransform getTransformToSource() {
+		return transform;
+	}
+
+	@Override
+	public RandomAccess<T> randomAccess() {
+		return new MixedTransformView<>(image, transform).randomAccess();
+	}
+
+	@Override
+	public RandomAccess<T> randomAccess(Interval interval) {
+		return randomAccess();
+	}
+}
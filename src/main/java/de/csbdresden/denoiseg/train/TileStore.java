@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only store of training tiles in a memory mapped file. Tiles are
+ * copied into the file once while loading and then read from the mapped
+ * buffers, the operating system page cache decides which of them stay in
+ * memory. The file is mapped in segments of {@link #segmentSize} bytes, a
+ * tile never spans two segments.
+ */
+class TileStore implements AutoCloseable {
+
+	static final long segmentSize = 1L << 30;
+	private static final long minMappingSize = 1L << 24;
+
+	/**
+	 * Position of a stored tile in the file.
+	 */
+	static class Entry {
+		final long offset;
+		final long[] dimensions;
+
+		Entry(long offset, long[] dimensions) {
+			this.offset = offset;
+			this.dimensions = dimensions;
+		}
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final FileChannel.MapMode mode;
+	private final boolean deleteOnClose;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private long size = 0;
+
+	private TileStore(Path file, FileChannel.MapMode mode, boolean deleteOnClose) throws IOException {
+		this.file = file;
+		this.mode = mode;
+		this.deleteOnClose = deleteOnClose;
+		channel = mode == FileChannel.MapMode.READ_ONLY ?
+				FileChannel.open(file, StandardOpenOption.READ) :
+				FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Creates a store file in {@code directory} which is deleted on {@link #close()}.
+	 */
+	static TileStore createTemporary(File directory) throws IOException {
+		Path file = Files.createTempFile(directory.toPath(), "denoiseg-tiles", ".bin");
+		file.toFile().deleteOnExit();
+		return new TileStore(file, FileChannel.MapMode.READ_WRITE, true);
+	}
+
+	/**
+	 * Creates a new store file which is kept on {@link #close()}.
+	 */
+	static TileStore create(Path file) throws IOException {
+		return new TileStore(file, FileChannel.MapMode.READ_WRITE, false);
+	}
+
+	/**
+	 * Opens an existing store file for reading the tiles of known {@link Entry entries}.
+	 */
+	static TileStore open(Path file) throws IOException {
+		return new TileStore(file, FileChannel.MapMode.READ_ONLY, false);
+	}
+
+	Entry addFloats(RandomAccessibleInterval<FloatType> tile) throws IOException {
+		Entry entry = allocate(Intervals.dimensionsAsLongArray(tile), Float.BYTES);
+		LoopBuilder.setImages(tile, floats(entry)).forEachPixel((in, out) -> out.set(in));
+		return entry;
+	}
+
+	Entry addBytes(RandomAccessibleInterval<UnsignedByteType> tile) throws IOException {
+		Entry entry = allocate(Intervals.dimensionsAsLongArray(tile), Byte.BYTES);
+		LoopBuilder.setImages(tile, bytes(entry)).forEachPixel((in, out) -> out.set(in));
+		return entry;
+	}
+
+	ArrayImg<FloatType, FloatBufferAccess> floats(Entry entry) throws IOException {
+		ByteBuffer buffer = buffer(entry.offset, Intervals.numElements(entry.dimensions) * Float.BYTES);
+		return FloatBufferAccess.floats(new FloatBufferAccess(buffer.asFloatBuffer()), entry.dimensions);
+	}
+
+	ArrayImg<UnsignedByteType, ByteBufferAccess> bytes(Entry entry) throws IOException {
+		ByteBuffer buffer = buffer(entry.offset, Intervals.numElements(entry.dimensions));
+		return ByteBufferAccess.unsignedBytes(new ByteBufferAccess(buffer), entry.dimensions);
+	}
+
+	/**
+	 * Reserves space for a tile, the tile data can be written without holding the lock.
+	 */
+	private synchronized Entry allocate(long[] dims, int bytesPerPixel) {
+		long numBytes = Intervals.numElements(dims) * bytesPerPixel;
+		if(numBytes > segmentSize) throw new IllegalArgumentException("Tile too large for the tile store: " + numBytes + " bytes");
+		if(size % segmentSize + numBytes > segmentSize) size += segmentSize - size % segmentSize;
+		Entry entry = new Entry(size, dims);
+		// keep the following tile aligned for float access
+		size += (numBytes + 7) & ~7L;
+		return entry;
+	}
+
+	/**
+	 * Writable segments are mapped up to the allocated bytes and mapped again
+	 * with at least twice the length when a tile lies behind the mapped part,
+	 * so the file only grows with the stored tiles. Buffers of the previous
+	 * mapping stay valid.
+	 */
+	private synchronized ByteBuffer buffer(long offset, long numBytes) throws IOException {
+		int index = (int) (offset / segmentSize);
+		while(segments.size() <= index) segments.add(null);
+		MappedByteBuffer segment = segments.get(index);
+		long start = index * segmentSize;
+		int position = (int) (offset - start);
+		if(segment == null || segment.capacity() < position + numBytes) {
+			long length;
+			if(mode == FileChannel.MapMode.READ_ONLY) {
+				length = Math.min(segmentSize, channel.size() - start);
+			} else {
+				long mapped = segment == null ? 0 : segment.capacity();
+				length = Math.min(segmentSize, Math.max(position + numBytes, Math.max(2 * mapped, minMappingSize)));
+			}
+			segment = channel.map(mode, start, length);
+			segments.set(index, segment);
+		}
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position(position);
+		buffer.limit(position + (int) numBytes);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Cuts a kept file to the allocated bytes. A temporary file is deleted,
+	 * if it is still mapped by tiles in use (on Windows) it is deleted on exit.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		segments.clear();
+		try {
+			if(mode == FileChannel.MapMode.READ_WRITE && !deleteOnClose && channel.isOpen()) channel.truncate(size);
+		} finally {
+			channel.close();
+		}
+		if(deleteOnClose) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+}
@@ -28,13 +28,20 @@
  */
 package de.csbdresden.denoiseg.train;
 
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+
+import java.util.stream.IntStream;
 
 class TrainUtils {
 
@@ -44,12 +51,34 @@ class TrainUtils {
 		return Converters.convert(data, converter, new FloatType());
 	}
 
-	static void normalize(TrainingDataCollection<FloatType> trainingData, FloatType mean, FloatType stdDev) {
-		for (int i = 0; i < trainingData.size(); i++) {
+	/**
+	 * Replaces the input of each tile by its normalized version. For
+	 * {@link DenoiSegConfig.TileStorage#HEAP} and
+	 * {@link DenoiSegConfig.TileStorage#OFF_HEAP}, the normalized values are
+	 * computed once and stored in a new image. Otherwise the tiles are not
+	 * modified but normalized while copying patches, see {@link NormalizedTile}.
+	 */
+	static void normalize(TrainingDataCollection<FloatType> trainingData, FloatType mean, FloatType stdDev, DenoiSegConfig.TileStorage storage) {
+		IntStream.range(0, trainingData.size()).parallel().forEach(i -> {
 			TrainingData<FloatType> data = trainingData.get(i);
-			TrainingData<FloatType> newData = new TrainingData<>(
-					TrainUtils.normalizeConverter(data.input, mean, stdDev), data.outSegment);
-			trainingData.set(i, newData);
+			if(storage == DenoiSegConfig.TileStorage.MAPPED || storage == DenoiSegConfig.TileStorage.VIEW) {
+				trainingData.set(i, new TrainingData<>(new NormalizedTile(data.input, mean.get(), stdDev.get()), data.outSegment));
+				return;
+			}
+			RandomAccessibleInterval<FloatType> input = TrainUtils.normalizeConverter(data.input, mean, stdDev);
+			trainingData.set(i, new TrainingData<>(materialize(input, storage), data.outSegment));
+		});
+	}
+
+	private static ArrayImg<FloatType, ?> materialize(RandomAccessibleInterval<FloatType> data, DenoiSegConfig.TileStorage storage) {
+		long[] dims = Intervals.dimensionsAsLongArray(data);
+		ArrayImg<FloatType, ?> res = storage == DenoiSegConfig.TileStorage.OFF_HEAP ?
+				FloatBufferAccess.floats(dims) : ArrayImgs.floats(dims);
+		Cursor<FloatType> in = Views.flatIterable(data).cursor();
+		Cursor<FloatType> out = res.cursor();
+		while(in.hasNext()) {
+			out.next().set(in.next());
 		}
+		return res;
 	}
 }
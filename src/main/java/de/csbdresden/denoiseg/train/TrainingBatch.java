@@ -28,17 +28,30 @@
  */
 package de.csbdresden.denoiseg.train;
 
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.type.numeric.RealType;
+import org.tensorflow.Tensor;
 
-class ProcessedTrainingData<T extends RealType<T>> {
-		public RandomAccessibleInterval<T> input;
-		public RandomAccessibleInterval<T> outDenoise;
-		public RandomAccessibleInterval<T> outSegment;
+/**
+ * The tensors of a training or validation batch fed into the TensorFlow
+ * session. Closing the batch releases the native tensor memory.
+ */
+class TrainingBatch implements AutoCloseable {
+
+	final int size;
+	final Tensor input;
+	final Tensor outDenoise;
+	final Tensor outSegment;
+
+	TrainingBatch(int size, Tensor input, Tensor outDenoise, Tensor outSegment) {
+		this.size = size;
+		this.input = input;
+		this.outDenoise = outDenoise;
+		this.outSegment = outSegment;
+	}
 
-		public ProcessedTrainingData(RandomAccessibleInterval<T> input, RandomAccessibleInterval<T> outDenoise, RandomAccessibleInterval<T> outSegment) {
-			this.input = input;
-			this.outSegment = outSegment;
-			this.outDenoise = outDenoise;
-		}
+	@Override
+	public void close() {
+		input.close();
+		outDenoise.close();
+		outSegment.close();
 	}
+}
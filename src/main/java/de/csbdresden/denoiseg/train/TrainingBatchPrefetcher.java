@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Prepares training batches and their tensors on worker threads while the
+ * TensorFlow session runs the current step. At most {@code queueSize} batches
+ * are pending at any time; batches are handed out in the order they were
+ * requested, independent of which worker finished first.
+ */
+class TrainingBatchPrefetcher implements AutoCloseable {
+
+	interface BatchFactory {
+		/**
+		 * Called on the thread requesting batches, in the order the batches
+		 * are handed out. The returned task runs on a worker thread.
+		 */
+		Supplier<TrainingBatch> prepare();
+	}
+
+	private final BatchFactory factory;
+	private final int queueSize;
+	private final ExecutorService executor;
+	private final Deque<Future<TrainingBatch>> pending = new ArrayDeque<>();
+
+	TrainingBatchPrefetcher(BatchFactory factory, int queueSize, int numThreads) {
+		this.factory = factory;
+		this.queueSize = numThreads > 0 ? Math.max(queueSize, 0) : 0;
+		this.executor = this.queueSize > 0 ? Executors.newFixedThreadPool(numThreads, new PrefetchThreadFactory()) : null;
+		fill();
+	}
+
+	/**
+	 * @return the next batch, or {@code null} if the calling thread was interrupted while waiting
+	 */
+	TrainingBatch next() {
+		if(executor == null) return factory.prepare().get();
+		Future<TrainingBatch> head = pending.poll();
+		fill();
+		try {
+			return head.get();
+		} catch (InterruptedException | CancellationException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to prepare training batch", e.getCause());
+		}
+	}
+
+	private void fill() {
+		while(executor != null && pending.size() < queueSize) {
+			pending.add(executor.submit(factory.prepare()::get));
+		}
+	}
+
+	@Override
+	public void close() {
+		if(executor == null) return;
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Future<TrainingBatch> future : pending) {
+			if(future.isDone() && !future.isCancelled()) {
+				try {
+					future.get().close();
+				} catch (InterruptedException | ExecutionException ignored) {
+				}
+			}
+		}
+		pending.clear();
+	}
+
+	private static class PrefetchThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "denoiseg-prefetch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the constant tensors fed into every training and validation step for
+ * the whole session. The learning rate tensor is only recreated when the
+ * learning rate changes.
+ */
+class TrainingTensorCache implements AutoCloseable {
+
+	private final Tensor<Boolean> learningPhaseTraining = Tensors.create(true);
+	private final Tensor<Boolean> learningPhaseValidation = Tensors.create(false);
+	private final Map<Integer, Tensor<Float>> weights = new HashMap<>();
+	private Tensor<Float> learningRate;
+	private float learningRateValue;
+
+	Tensor<Boolean> getLearningPhase(boolean training) {
+		return training ? learningPhaseTraining : learningPhaseValidation;
+	}
+
+	Tensor<Float> getWeights(int batchSize) {
+		return weights.computeIfAbsent(batchSize, size -> {
+			float[] weightsdata = new float[size];
+			Arrays.fill(weightsdata, 1);
+			return Tensors.create(weightsdata);
+		});
+	}
+
+	Tensor<Float> getLearningRate(float rate) {
+		if(learningRate == null || Float.compare(learningRateValue, rate) != 0) {
+			if(learningRate != null) learningRate.close();
+			learningRate = Tensors.create(rate);
+			learningRateValue = rate;
+		}
+		return learningRate;
+	}
+
+	@Override
+	public void close() {
+		learningPhaseTraining.close();
+		learningPhaseValidation.close();
+		weights.values().forEach(Tensor::close);
+		weights.clear();
+		if(learningRate != null) learningRate.close();
+		learningRate = null;
+	}
+}
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.SplittableRandom;
+
+/**
+ * Replaces a blind-spot by a pixel drawn uniformly from the
+ * {@code (2 * radius + 1)^n} window around it, the blind-spot itself
+ * included. Windows touching the patch border are shifted back into the
+ * patch. Works on the raw patch array (x fastest) using index arithmetic only.
+ * <p>
+ * This is the window of the former {@code uniform_withCP}: its sub-patch
+ * interval had an inclusive end and was {@code 2 * radius + 2} wide, drawing
+ * {@code nextInt(width - 1)} picked one of the first {@code 2 * radius + 1}
+ * positions. Patches smaller than the window are sampled as a whole instead
+ * of reading outside the patch.
+ * </p>
+ */
+class UniformNeighborManipulator implements DenoiSegDataWrapper.ValueManipulatorConsumer {
+
+	private final int radius;
+
+	UniformNeighborManipulator(int radius) {
+		this.radius = radius;
+	}
+
+	@Override
+	public float accept(float[] patch, int[] dims, int[] position, SplittableRandom random) {
+		int index = 0;
+		int stride = 1;
+		for (int d = 0; d < dims.length; d++) {
+			int window = Math.min(2 * radius + 1, dims[d]);
+			int start = Math.max(0, Math.min(position[d] - radius, dims[d] - window));
+			index += (start + random.nextInt(window)) * stride;
+			stride *= dims[d];
+		}
+		return patch[index];
+	}
+}
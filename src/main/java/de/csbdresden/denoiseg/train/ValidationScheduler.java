@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Decides after which epochs and on which batches the validation loss is
+ * computed, see {@link DenoiSegConfig#setValidationInterval(int)},
+ * {@link DenoiSegConfig#setValidationBatches(int)} and
+ * {@link DenoiSegConfig#setValidationTimeBudget(long)}. The subset of
+ * batches is fixed for the whole training so that the losses of different
+ * epochs stay comparable; with a time budget each epoch validates a prefix
+ * of this subset.
+ */
+class ValidationScheduler {
+
+	private final int interval;
+	private final long timeBudgetNanos;
+	private final int[] batches;
+
+	ValidationScheduler(DenoiSegConfig config, int numBatches, Random random) {
+		this(config.getValidationInterval(), config.getValidationBatches(), config.getValidationTimeBudget(), numBatches, random);
+	}
+
+	ValidationScheduler(int interval, int numSubset, long timeBudgetMillis, int numBatches, Random random) {
+		this.interval = Math.max(1, interval);
+		this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeBudgetMillis));
+		this.batches = subset(numBatches, numSubset, random);
+	}
+
+	private static int[] subset(int numBatches, int numSubset, Random random) {
+		int[] res = IntStream.range(0, numBatches).toArray();
+		if(numSubset <= 0 || numSubset >= numBatches) return res;
+		// partial Fisher-Yates shuffle, the batches keep their original order
+		for (int i = 0; i < numSubset; i++) {
+			int j = i + random.nextInt(numBatches - i);
+			int tmp = res[i];
+			res[i] = res[j];
+			res[j] = tmp;
+		}
+		int[] subset = new int[numSubset];
+		System.arraycopy(res, 0, subset, 0, numSubset);
+		Arrays.sort(subset);
+		return subset;
+	}
+
+	/**
+	 * The first epoch is always validated so that there is a loss to compare to.
+	 *
+	 * @param epoch zero based index of the finished epoch
+	 * @param last  whether training ends after this epoch
+	 */
+	boolean validate(int epoch, boolean last) {
+		return epoch == 0 || last || (epoch + 1) % interval == 0;
+	}
+
+	/**
+	 * @return the indices of the validation batches to use, in ascending order
+	 */
+	int[] getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @param startNanos  {@link System#nanoTime()} when validation of the epoch started
+	 * @param numValidated number of batches validated so far in this epoch
+	 */
+	boolean outOfTime(long startNanos, int numValidated) {
+		return timeBudgetNanos > 0 && numValidated > 0 && System.nanoTime() - startNanos > timeBudgetNanos;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.boundary;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the same boundary as {@link IntTypeBoundaryRandomAccess4} for a
+ * whole labeling at once: a pixel is a boundary pixel if one of its 2n
+ * direct neighbours (mirrored at the image border) has a different label
+ * which is either larger than the center label or not background. The labels
+ * are scanned linearly with precomputed neighbour offsets, in parallel over
+ * slices of the last dimension, and the result is stored as a byte mask.
+ * Labelings are indexed with {@code int}, so they may have at most
+ * {@link Integer#MAX_VALUE} pixels.
+ */
+public final class LabelBoundaries
+{
+
+	private interface Labels
+	{
+		int get( int index );
+	}
+
+	private LabelBoundaries()
+	{
+	}
+
+	/**
+	 * @param pool pool processing the slices in parallel, the slices are processed on the calling thread if null
+	 * @return a mask of the size of {@code labeling} which is 1 for boundary pixels and 0 otherwise
+	 * @throws IllegalArgumentException if {@code labeling} has more than {@link Integer#MAX_VALUE} pixels
+	 */
+	public static < T extends IntegerType< T > > RandomAccessibleInterval< UnsignedByteType > compute( final RandomAccessibleInterval< T > labeling, final ForkJoinPool pool )
+	{
+		final long[] dimensions = Intervals.dimensionsAsLongArray( labeling );
+		checkSize( dimensions );
+		final int[] dims = new int[ dimensions.length ];
+		for ( int d = 0; d < dims.length; ++d )
+			dims[ d ] = ( int ) dimensions[ d ];
+		final ArrayImg< UnsignedByteType, ByteArray > mask = ArrayImgs.unsignedBytes( dimensions );
+		compute( labels( labeling ), dims, mask.update( null ).getCurrentStorageArray(), pool );
+		return Views.translate( mask, Intervals.minAsLongArray( labeling ) );
+	}
+
+	/**
+	 * @param labels flat label array, x fastest
+	 * @param mask   receives 1 for boundary pixels and 0 otherwise
+	 * @param pool   pool processing the slices in parallel, the slices are processed on the calling thread if null
+	 * @throws IllegalArgumentException if {@code labels} or {@code mask} do not have the size given by {@code dims}
+	 */
+	public static void compute( final int[] labels, final int[] dims, final byte[] mask, final ForkJoinPool pool )
+	{
+		final long[] dimensions = new long[ dims.length ];
+		for ( int d = 0; d < dims.length; ++d )
+			dimensions[ d ] = dims[ d ];
+		final long numElements = checkSize( dimensions );
+		if ( labels.length != numElements || mask.length != numElements )
+			throw new IllegalArgumentException( "Labels of length " + labels.length + " and mask of length " + mask.length
+					+ " do not match the " + numElements + " pixels of the dimensions" );
+		compute( index -> labels[ index ], dims, mask, pool );
+	}
+
+	/**
+	 * @return the number of pixels, which has to fit the {@code int} indices of the scan
+	 */
+	private static long checkSize( final long[] dimensions )
+	{
+		final long numElements = Intervals.numElements( dimensions );
+		if ( numElements > Integer.MAX_VALUE || numElements < 0 )
+			throw new IllegalArgumentException( "Labeling of size " + Arrays.toString( dimensions )
+					+ " has more than " + Integer.MAX_VALUE + " pixels" );
+		return numElements;
+	}
+
+	private static Labels labels( final RandomAccessibleInterval< ? extends IntegerType< ? > > labeling )
+	{
+		if ( labeling instanceof ArrayImg )
+		{
+			final ArrayImg< ?, ? > img = ( ArrayImg< ?, ? > ) labeling;
+			final Object type = img.firstElement();
+			final Object access = img.update( null );
+			if ( type instanceof IntType && access instanceof IntArray )
+			{
+				final int[] data = ( ( IntArray ) access ).getCurrentStorageArray();
+				return index -> data[ index ];
+			}
+			if ( type instanceof ShortType && access instanceof ShortArray )
+			{
+				final short[] data = ( ( ShortArray ) access ).getCurrentStorageArray();
+				return index -> data[ index ];
+			}
+			if ( type instanceof UnsignedShortType && access instanceof ShortArray )
+			{
+				final short[] data = ( ( ShortArray ) access ).getCurrentStorageArray();
+				return index -> data[ index ] & 0xffff;
+			}
+		}
+		final int[] data = new int[ ( int ) Intervals.numElements( labeling ) ];
+		final Cursor< ? extends IntegerType< ? > > cursor = Views.flatIterable( labeling ).cursor();
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = cursor.next().getInteger();
+		return index -> data[ index ];
+	}
+
+	private static void compute( final Labels labels, final int[] dims, final byte[] mask, final ForkJoinPool pool )
+	{
+		final int n = dims.length;
+		final int numSlices = n > 1 ? dims[ n - 1 ] : 1;
+		final IntConsumer computeSlice = slice -> computeSlice( labels, dims, mask, slice );
+		if ( pool != null && numSlices > 1 )
+			pool.submit( () -> IntStream.range( 0, numSlices ).parallel().forEach( computeSlice ) ).join();
+		else
+			IntStream.range( 0, numSlices ).forEach( computeSlice );
+	}
+
+	/**
+	 * Processes all lines along x with the given position in the last
+	 * dimension (the whole image if it is one-dimensional).
+	 */
+	private static void computeSlice( final Labels labels, final int[] dims, final byte[] mask, final int slice )
+	{
+		final int n = dims.length;
+		final int width = dims[ 0 ];
+		final int[] strides = new int[ n ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+			strides[ d ] = strides[ d - 1 ] * dims[ d - 1 ];
+		int linesPerSlice = 1;
+		for ( int d = 1; d < n - 1; ++d )
+			linesPerSlice *= dims[ d ];
+		final int[] position = new int[ n ];
+		if ( n > 1 )
+			position[ n - 1 ] = slice;
+		// offsets of the neighbours in dimensions > 0, fixed along a line
+		final int[] bck = new int[ n ];
+		final int[] fwd = new int[ n ];
+		for ( int line = 0; line < linesPerSlice; ++line )
+		{
+			int rest = line;
+			for ( int d = 1; d < n - 1; ++d )
+			{
+				position[ d ] = rest % dims[ d ];
+				rest /= dims[ d ];
+			}
+			int start = 0;
+			for ( int d = 1; d < n; ++d )
+			{
+				start += position[ d ] * strides[ d ];
+				bck[ d ] = neighbourOffset( position[ d ], dims[ d ], -1 ) * strides[ d ];
+				fwd[ d ] = neighbourOffset( position[ d ], dims[ d ], 1 ) * strides[ d ];
+			}
+			final int end = start + width - 1;
+			mask[ start ] = boundary( labels, start, neighbourOffset( 0, width, -1 ), neighbourOffset( 0, width, 1 ), bck, fwd );
+			for ( int index = start + 1; index < end; ++index )
+				mask[ index ] = boundary( labels, index, -1, 1, bck, fwd );
+			if ( end > start )
+				mask[ end ] = boundary( labels, end, -1, neighbourOffset( width - 1, width, 1 ), bck, fwd );
+		}
+	}
+
+	private static byte boundary( final Labels labels, final int index, final int left, final int right, final int[] bck, final int[] fwd )
+	{
+		final int center = labels.get( index );
+		if ( differs( center, labels.get( index + left ) ) || differs( center, labels.get( index + right ) ) )
+			return 1;
+		for ( int d = 1; d < bck.length; ++d )
+			if ( differs( center, labels.get( index + bck[ d ] ) ) || differs( center, labels.get( index + fwd[ d ] ) ) )
+				return 1;
+		return 0;
+	}
+
+	/**
+	 * Offset of the neighbour in {@code direction} with single mirroring at the border.
+	 */
+	private static int neighbourOffset( final int position, final int size, final int direction )
+	{
+		if ( size == 1 )
+			return 0;
+		final int neighbour = position + direction;
+		if ( neighbour < 0 || neighbour >= size )
+			return -direction;
+		return direction;
+	}
+
+	private static boolean differs( final int center, final int neighbour )
+	{
+		return neighbour != center && ( neighbour > center || neighbour != 0 );
+	}
+}
@@ -16,10 +16,15 @@ from csbdeep.utils import plot_history
 import tensorflow as tf
 import keras.backend as K
 
+import argparse
 import urllib
 import os
 import zipfile
 
+parser = argparse.ArgumentParser(description="Builds the untrained DenoiSeg training graph and prediction model bundled with the plugin")
+parser.add_argument("--dims", type=int, choices=[2, 3], default=2, help="number of spatial dimensions of the network")
+args = parser.parse_args()
+
 def rename_tensor(name_in, name_out):
     print("  " + name_out + " (" + name_in + ")")
     var = tf.get_default_graph().get_tensor_by_name(name_in)
@@ -35,10 +40,12 @@ def rename_op(name_in, name_out):
 def get_name(tensor):
     return ''.join(tensor.name.rsplit(":0", 1))
 
-X = np.random.uniform(-2,2,(10, 96, 96, 1))
-X_val = np.random.uniform(-2,2,(10, 96, 96, 1))
-Y = np.random.uniform(-2,2,(10, 96, 96, 3))
-Y_val = np.random.uniform(-2,2,(10, 96, 96, 3))
+# only the number of dimensions of the data matters, the graph accepts any patch size divisible by 2^unet_n_depth
+shape = (10, 96, 96) if args.dims == 2 else (10, 32, 64, 64)
+X = np.random.uniform(-2,2,shape + (1,))
+X_val = np.random.uniform(-2,2,shape + (1,))
+Y = np.random.uniform(-2,2,shape + (3,))
+Y_val = np.random.uniform(-2,2,shape + (3,))
 
 train_batch_size = 128
 train_steps_per_epoch = max(100, min(int(X.shape[0]/train_batch_size), 400))
@@ -108,7 +115,7 @@ tf.global_variables_initializer()
 tf.train.Saver().as_saver_def()
 
 # save graph for training
-with open('../resources/denoiseg_graph_2d.pb', 'wb') as f:
+with open('../resources/denoiseg_graph_%dd.pb' % args.dims, 'wb') as f:
     f.write(tf.get_default_graph().as_graph_def().SerializeToString())
 
 # [n.name for n in tf.get_default_graph().as_graph_def().node]
@@ -134,7 +141,7 @@ with tf.Session() as sess:
         outputs={"denoised": model_output_denoise, "segmented": model_output_segment},
         method_name=tf.compat.v1.saved_model.signature_constants.PREDICT_METHOD_NAME)
 
-    builder = tf.compat.v1.saved_model.Builder("../resources/denoiseg_prediction_2d")
+    builder = tf.compat.v1.saved_model.Builder("../resources/denoiseg_prediction_%dd" % args.dims)
     builder.add_meta_graph_and_variables(sess, [tf.compat.v1.saved_model.tag_constants.SERVING], signature_def_map={
         tf.compat.v1.saved_model.signature_constants.DEFAULT_SERVING_SIGNATURE_DEF_KEY: signature_definition
     }, clear_devices=True)
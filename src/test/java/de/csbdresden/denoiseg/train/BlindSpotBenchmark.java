@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the array based blind-spot generation and neighbor replacement
+ * with the previous {@link Point} and view based implementation and measures
+ * the complete blind-spot manipulation of one patch. Run with
+ * {@code -prof gc} to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 4, time = 1)
+@Measurement(iterations = 8, time = 1)
+@Fork(1)
+public class BlindSpotBenchmark {
+
+	private static final int radius = 5;
+
+	@Param({"32", "64", "128"})
+	public int patchSize;
+
+	private long boxSize;
+	private PatchBuffers buffers;
+	private UniformNeighborManipulator manipulator;
+	private SplittableRandom random;
+	private RandomAccessibleInterval<FloatType> patch;
+	private int[] position;
+
+	@Setup
+	public void setup() {
+		FinalDimensions shape = new FinalDimensions(patchSize, patchSize);
+		int numPix = (int) (patchSize * patchSize / 100. * 1.6);
+		boxSize = Math.round(Math.sqrt(patchSize * patchSize / (float) numPix));
+		buffers = new PatchBuffers(shape, boxSize);
+		manipulator = new UniformNeighborManipulator(radius);
+		random = new SplittableRandom(42);
+		for (int i = 0; i < buffers.input.length; i++) {
+			buffers.input[i] = (float) random.nextDouble();
+		}
+		patch = ArrayImgs.floats(buffers.input, patchSize, patchSize, 1);
+		position = new int[] { patchSize / 2, patchSize - 1 };
+	}
+
+	@Benchmark
+	public int stratifiedCoordinates() {
+		return buffers.blindSpots.generate(random);
+	}
+
+	@Benchmark
+	public List<Point> pointCoordinates() {
+		List<Point> coords = new ArrayList<>();
+		int boxCount = (int) Math.ceil(patchSize / (float) boxSize);
+		for (int i = 0; i < boxCount; i++) {
+			for (int j = 0; j < boxCount; j++) {
+				Point p = new Point((long) (Math.random() * boxSize), (long) (Math.random() * boxSize), 0);
+				p.setPosition(i * boxSize + p.getIntPosition(0), 0);
+				p.setPosition(j * boxSize + p.getIntPosition(1), 1);
+				if (p.getIntPosition(0) < patchSize && p.getIntPosition(1) < patchSize) {
+					coords.add(p);
+				}
+			}
+		}
+		return coords;
+	}
+
+	@Benchmark
+	public float arrayNeighborReplacement() {
+		return manipulator.accept(buffers.input, buffers.getPatchDimensions(), position, random);
+	}
+
+	@Benchmark
+	public double viewNeighborReplacement() {
+		IntervalView<FloatType> slice = Views.addDimension(Views.hyperSlice(patch, 2, 0), 0, 0);
+		long[] start = new long[3];
+		long[] end = new long[3];
+		for (int d = 0; d < 2; d++) {
+			start[d] = Math.max(0, position[d] - radius);
+			end[d] = start[d] + radius * 2 + 1;
+			long shift = Math.min(0, slice.dimension(d) - end[d]);
+			start[d] += shift;
+			end[d] += shift;
+		}
+		IntervalView<FloatType> subPatch = Views.zeroMin(Views.interval(slice, start, end));
+		Random r = new Random();
+		Point coord = new Point(3);
+		for (int d = 0; d < 2; d++) {
+			coord.setPosition(r.nextInt((int) (subPatch.dimension(d) - 1)), d);
+		}
+		RandomAccess<FloatType> ra = subPatch.randomAccess();
+		ra.setPosition(coord);
+		return ra.get().getRealDouble();
+	}
+
+	@Benchmark
+	public float[] manipulatePatch() {
+		DenoiSegDataWrapper.manipulateX(buffers, random, manipulator);
+		return buffers.input;
+	}
+
+	public static void main(String... args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(BlindSpotBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
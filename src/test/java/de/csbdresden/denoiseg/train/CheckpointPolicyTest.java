@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointPolicyTest {
+
+	private static final float[] losses = {5, 4, 4.5f, 4.6f, 3, 3.5f, 3.6f, 3.7f, 3.8f, 3.9f};
+
+	@Test
+	public void testEveryEpoch() {
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), savedEpochs(new CheckpointPolicy(1, false, 0)));
+	}
+
+	@Test
+	public void testInterval() {
+		// every third epoch, every improvement and the last epoch
+		assertEquals(Arrays.asList(0, 1, 2, 4, 5, 8, 9), savedEpochs(new CheckpointPolicy(3, false, 0)));
+	}
+
+	@Test
+	public void testBestOnly() {
+		// the last epoch is not saved if it did not improve
+		assertEquals(Arrays.asList(0, 1, 4), savedEpochs(new CheckpointPolicy(3, true, 0)));
+		assertFalse(new CheckpointPolicy(1, true, 0).save(9, false, true));
+		assertTrue(new CheckpointPolicy(1, true, 0).save(9, true, true));
+	}
+
+	@Test
+	public void testDefaults() {
+		CheckpointPolicy policy = new CheckpointPolicy(new DenoiSegConfig());
+		assertEquals(0, policy.getKeepLast());
+		assertTrue(policy.save(3, false, false));
+		CheckpointPolicy clamped = new CheckpointPolicy(0, false, -2);
+		assertEquals(0, clamped.getKeepLast());
+		assertTrue(clamped.save(3, false, false));
+	}
+
+	@Test
+	public void testKeepLast() {
+		CheckpointPolicy policy = new CheckpointPolicy(3, false, 2);
+		List<String> history = new ArrayList<>();
+		for (int epoch : savedEpochs(policy)) {
+			history.add(String.format("epoch%05d", epoch + 1));
+			history.removeAll(policy.expired(history.toArray(new String[0])));
+		}
+		assertEquals(Arrays.asList("epoch00009", "epoch00010"), history);
+		assertEquals(Arrays.asList("epoch00009", "epoch00010"),
+				policy.expired(new String[] {"epoch00011", "epoch00010", "epoch00012", "epoch00009"}));
+		assertEquals(Collections.emptyList(), policy.expired(new String[] {"epoch00001"}));
+		assertEquals(Collections.emptyList(), new CheckpointPolicy(1, false, 5).expired(new String[] {"epoch00001", "epoch00002"}));
+	}
+
+	/**
+	 * @return the epochs saved for {@link #losses}, improvements tracked like the output handler does
+	 */
+	private static List<Integer> savedEpochs(CheckpointPolicy policy) {
+		List<Integer> res = new ArrayList<>();
+		float bestLoss = Float.MAX_VALUE;
+		for (int epoch = 0; epoch < losses.length; epoch++) {
+			boolean best = bestLoss > losses[epoch];
+			if(best) bestLoss = losses[epoch];
+			if(policy.save(epoch, best, epoch == losses.length - 1)) res.add(epoch);
+		}
+		return res;
+	}
+}
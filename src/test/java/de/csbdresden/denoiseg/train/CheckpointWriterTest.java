@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class CheckpointWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Records the written snapshots, the first install blocks until {@link #release} is counted down.
+	 */
+	private static class RecordingOutput implements CheckpointWriter.Output {
+		final List<String> events = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void install(File snapshot) throws IOException {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			if(!snapshot.exists()) throw new IOException("Missing snapshot " + snapshot.getName());
+			events.add("install " + snapshot.getName());
+		}
+
+		@Override
+		public void copyBest() {
+			events.add("copy best");
+		}
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		try (CheckpointWriter writer = new CheckpointWriter(output)) {
+			writer.submit(snapshot("s1"), false);
+			output.started.await();
+			// written while s1 is installed, only the latest and the best one remain
+			File s2 = snapshot("s2");
+			writer.submit(s2, false);
+			writer.submit(snapshot("s3"), true);
+			writer.submit(snapshot("s4"), false);
+			writer.submit(snapshot("s5"), false);
+			assertFalse("coalesced snapshot is deleted", s2.exists());
+			output.release.countDown();
+			writer.flush();
+			assertEquals(Arrays.asList("install s1", "install s3", "copy best", "install s5"), output.events);
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+
+	@Test
+	public void testBestIsLatest() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		try (CheckpointWriter writer = new CheckpointWriter(output)) {
+			writer.submit(snapshot("s1"), false);
+			output.started.await();
+			writer.submit(snapshot("s2"), true);
+			writer.submit(snapshot("s3"), true);
+			output.release.countDown();
+			writer.flush();
+			// the older best snapshot is replaced by the newer one
+			assertEquals(Arrays.asList("install s1", "install s3", "copy best"), output.events);
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+
+	@Test
+	public void testFailureAndClose() throws Exception {
+		RecordingOutput output = new RecordingOutput();
+		output.release.countDown();
+		CheckpointWriter writer = new CheckpointWriter(output);
+		writer.submit(new File(folder.getRoot(), "missing"), false);
+		try {
+			writer.flush();
+			fail("failure not reported");
+		} catch (IOException expected) {
+			// expected
+		}
+		// reported once
+		writer.flush();
+		writer.close();
+		File late = snapshot("late");
+		writer.submit(late, true);
+		assertEquals(Arrays.asList("install late", "copy best"), output.events);
+		assertFalse(late.exists());
+	}
+
+	private File snapshot(String name) throws IOException {
+		File res = folder.newFolder(name);
+		if(!new File(res, "variables.index").createNewFile()) throw new IOException("Could not create " + res);
+		return res;
+	}
+}
@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File raw = folder.newFolder("raw");
+		File labelings = folder.newFolder("labelings");
+		List<File> files = Arrays.asList(write(new File(raw, "a.tif"), 10), write(new File(raw, "b.tif"), 20));
+		write(new File(labelings, "a.tif"), 5);
+		LabelingIndex index = new LabelingIndex(labelings, "", "");
+		DenoiSegConfig config = new DenoiSegConfig();
+		DatasetCache cache = new DatasetCache(folder.newFolder("cache"));
+		String key = cache.key("TRAINING", files, index, config);
+		String statsKey = cache.statisticsKey(Collections.singletonList(key), 1, 42L);
+		assertNull(cache.readIndex(key));
+		assertNull(cache.readStatistics(statsKey));
+
+		RandomAccessibleInterval<FloatType> input = randomFloats(8, 6);
+		byte[] classBytes = new byte[8 * 6];
+		for (int i = 0; i < classBytes.length; i++) {
+			classBytes[i] = (byte) (i % 4);
+		}
+		RandomAccessibleInterval<UnsignedByteType> classes = ArrayImgs.unsignedBytes(classBytes, 8, 6);
+		RandomAccessibleInterval<FloatType> unlabeled = randomFloats(5, 7);
+		TileStore store = TileStore.create(DatasetCache.partFile(cache.tilesFile(key)));
+		DatasetCache.ImageEntries labeled = new DatasetCache.ImageEntries(true);
+		labeled.inputs.add(store.addFloats(input));
+		labeled.segments.add(store.addBytes(classes));
+		DatasetCache.ImageEntries notLabeled = new DatasetCache.ImageEntries(false);
+		notLabeled.inputs.add(store.addFloats(unlabeled));
+		RandomAccessibleInterval<FloatType> written = store.floats(labeled.inputs.get(0));
+		cache.writeIndex(key, store, Arrays.asList(labeled, notLabeled));
+		NormalizationStatistics stats = NormalizationStatistics.compute(Arrays.asList(input, unlabeled), 1, 0, null);
+		cache.writeStatistics(statsKey, stats);
+		// tiles of the closed store stay readable
+		assertSame(input, written);
+		try (Stream<Path> cached = Files.list(cache.tilesFile(key).getParent())) {
+			assertEquals(0, cached.filter(file -> file.toString().endsWith(".part")).count());
+		}
+
+		List<DatasetCache.ImageEntries> images = cache.readIndex(key);
+		assertEquals(2, images.size());
+		assertTrue(images.get(0).labeled);
+		assertFalse(images.get(1).labeled);
+		assertEquals(0, images.get(1).segments.size());
+		try (TileStore cached = TileStore.open(cache.tilesFile(key))) {
+			assertSame(input, cached.floats(images.get(0).inputs.get(0)));
+			assertSame(classes, cached.bytes(images.get(0).segments.get(0)));
+			assertSame(unlabeled, cached.floats(images.get(1).inputs.get(0)));
+		}
+		NormalizationStatistics cachedStats = cache.readStatistics(statsKey);
+		assertEquals(stats.getCount(), cachedStats.getCount());
+		assertEquals(stats.getMean(), cachedStats.getMean(), 0);
+		assertEquals(stats.getVariance(), cachedStats.getVariance(), 0);
+	}
+
+	@Test
+	public void testKeyChanges() throws IOException {
+		File raw = folder.newFolder("raw");
+		File labelings = folder.newFolder("labelings");
+		File a = write(new File(raw, "a.tif"), 10);
+		File b = write(new File(raw, "b.tif"), 20);
+		write(new File(labelings, "a.tif"), 5);
+		LabelingIndex index = new LabelingIndex(labelings, "", "");
+		DenoiSegConfig config = new DenoiSegConfig();
+		DatasetCache cache = new DatasetCache(folder.newFolder("cache"));
+		String key = cache.key("TRAINING", Arrays.asList(a, b), index, config);
+		assertEquals("file order", key, cache.key("TRAINING", Arrays.asList(b, a), index, config));
+		assertNotEquals("usage", key, cache.key("VALIDATION", Arrays.asList(a, b), index, config));
+		assertNotEquals("files", key, cache.key("TRAINING", Collections.singletonList(a), index, config));
+		assertNotEquals("patch shape", key, cache.key("TRAINING", Arrays.asList(a, b), index, new DenoiSegConfig().setPatchShape(32)));
+		write(new File(labelings, "b.tif"), 5);
+		LabelingIndex changedIndex = new LabelingIndex(labelings, "", "");
+		assertNotEquals("new labeling", key, cache.key("TRAINING", Arrays.asList(a, b), changedIndex, config));
+		write(b, 21);
+		assertNotEquals("changed file", key, cache.key("TRAINING", Arrays.asList(a, b), index, config));
+
+		String statsKey = cache.statisticsKey(Collections.singletonList(key), 1, 42L);
+		assertNotEquals(statsKey, cache.statisticsKey(Collections.singletonList(key), 0.5, 42L));
+		assertNotEquals(statsKey, cache.statisticsKey(Collections.singletonList(key), 1, null));
+		assertNotEquals(statsKey, cache.statisticsKey(Arrays.asList(key, key), 1, 42L));
+
+		// an entry written for the old key is not found for the changed files
+		String changedKey = cache.key("TRAINING", Arrays.asList(a, b), changedIndex, config);
+		TileStore store = TileStore.create(DatasetCache.partFile(cache.tilesFile(key)));
+		DatasetCache.ImageEntries image = new DatasetCache.ImageEntries(false);
+		image.inputs.add(store.addFloats(randomFloats(4, 4)));
+		cache.writeIndex(key, store, Collections.singletonList(image));
+		cache.writeStatistics(statsKey, new NormalizationStatistics());
+		assertEquals(1, cache.readIndex(key).size());
+		assertNull(cache.readIndex(changedKey));
+		assertNull(cache.readStatistics(cache.statisticsKey(Collections.singletonList(changedKey), 1, 42L)));
+	}
+
+	private static File write(File file, int length) throws IOException {
+		Files.write(file.toPath(), new byte[length]);
+		return file;
+	}
+
+	private static RandomAccessibleInterval<FloatType> randomFloats(long... dims) {
+		Random random = new Random(dims[0]);
+		RandomAccessibleInterval<FloatType> res = ArrayImgs.floats(dims);
+		Views.flatIterable(res).forEach(pixel -> pixel.set(random.nextFloat()));
+		return res;
+	}
+
+	private static <T extends RealType<T>> void assertSame(RandomAccessibleInterval<T> expected, RandomAccessibleInterval<T> actual) {
+		assertArrayEquals(Views.flatIterable(expected).dimensionsAsLongArray(), Views.flatIterable(actual).dimensionsAsLongArray());
+		Cursor<T> cursor = Views.flatIterable(actual).cursor();
+		for (T pixel : Views.flatIterable(expected)) {
+			assertEquals(pixel.getRealDouble(), cursor.next().getRealDouble(), 0);
+		}
+	}
+}
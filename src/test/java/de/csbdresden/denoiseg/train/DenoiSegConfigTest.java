@@ -0,0 +1,64 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DenoiSegConfigTest {
+
+	@Test
+	public void testLoaderThreadDefaults() {
+		DenoiSegConfig config = new DenoiSegConfig().setThreadBudget(8);
+		assertEquals(4, config.getLoaderThreads());
+		config.setThreadBudget(2).setLoaderThreads(5);
+		assertEquals(5, config.getLoaderThreads());
+		config.setLoaderThreads(0);
+		assertEquals(2, config.getLoaderThreads());
+		config.setThreadBudget(0);
+		assertEquals(1, config.getThreadBudget());
+		assertEquals(1, config.getLoaderThreads());
+	}
+
+	@Test
+	public void testParallelismDefaults() {
+		DenoiSegConfig config = new DenoiSegConfig().setThreadBudget(8);
+		// one prefetch worker, the patches of its batches are prepared next to the session
+		assertEquals(1, config.getPrefetchWorkers());
+		assertEquals(4, config.getParallelism());
+		config.setPrefetchQueueSize(0);
+		assertEquals(0, config.getPrefetchWorkers());
+		assertEquals(8, config.getParallelism());
+		config.setParallelism(3);
+		assertEquals(3, config.getParallelism());
+		config.setParallelism(0).setPrefetchQueueSize(2).setThreadBudget(1);
+		assertEquals(1, config.getParallelism());
+	}
+}
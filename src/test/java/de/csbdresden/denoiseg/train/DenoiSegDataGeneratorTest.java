@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DenoiSegDataGeneratorTest {
+
+	@Test
+	public void testTileOriginsWithoutStride() {
+		assertArrayEquals(new long[] {0, 16, 32}, DenoiSegDataGenerator.tileOrigins(63, 16, 0));
+		assertArrayEquals(new long[] {0, 16, 32, 48}, DenoiSegDataGenerator.tileOrigins(64, 16, 0));
+		assertArrayEquals(new long[] {0}, DenoiSegDataGenerator.tileOrigins(16, 16, 0));
+		assertArrayEquals(new long[0], DenoiSegDataGenerator.tileOrigins(15, 16, 0));
+	}
+
+	@Test
+	public void testTileOriginsWithStride() {
+		// the last tile is aligned with the end of the image
+		assertArrayEquals(new long[] {0, 16, 32, 47}, DenoiSegDataGenerator.tileOrigins(63, 16, 16));
+		assertArrayEquals(new long[] {0, 10, 20, 30, 40, 47}, DenoiSegDataGenerator.tileOrigins(63, 16, 10));
+		assertArrayEquals(new long[] {0, 7, 14, 17}, DenoiSegDataGenerator.tileOrigins(33, 16, 7));
+		// no additional tile if the stride reaches the end
+		assertArrayEquals(new long[] {0, 8, 16, 24, 32, 40, 48}, DenoiSegDataGenerator.tileOrigins(64, 16, 8));
+		assertArrayEquals(new long[] {0}, DenoiSegDataGenerator.tileOrigins(16, 16, 5));
+		assertArrayEquals(new long[] {0, 1}, DenoiSegDataGenerator.tileOrigins(17, 16, 5));
+		// a stride larger than the tile skips pixels but still covers the end
+		assertArrayEquals(new long[] {0, 20, 24}, DenoiSegDataGenerator.tileOrigins(31, 7, 20));
+		assertArrayEquals(new long[0], DenoiSegDataGenerator.tileOrigins(15, 16, 4));
+	}
+
+	@Test
+	public void testTileOffsetsOfNonSpatialDimensions() {
+		FinalInterval img = new FinalInterval(new long[] {2, 3, 0, 5}, new long[] {11, 10, 1, 7});
+		List<long[]> offsets = DenoiSegDataGenerator.tileOffsets(img, new long[] {4, 4}, 0);
+		// x fastest, the first non-spatial dimension outermost
+		List<long[]> expected = new ArrayList<>();
+		for (long z = 0; z < 2; z++) {
+			for (long t = 5; t < 8; t++) {
+				for (long y = 3; y <= 7; y += 4) {
+					for (long x = 2; x <= 6; x += 4) {
+						expected.add(new long[] {x, y, z, t});
+					}
+				}
+			}
+		}
+		assertEquals(expected.size(), offsets.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals("tile " + i, expected.get(i), offsets.get(i));
+		}
+	}
+
+	@Test
+	public void testTilesOfFiveDimensions() {
+		RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(9, 6, 2, 3, 2);
+		float[] value = {0};
+		Views.flatIterable(img).forEach(pixel -> pixel.set(value[0]++));
+		List<RandomAccessibleInterval<FloatType>> tiles = DenoiSegDataGenerator.createTiles(img, 2, 3, 3, null);
+		List<long[]> offsets = DenoiSegDataGenerator.tileOffsets(img, new long[] {6, 6}, 3);
+		assertEquals(2 * 2 * 3 * 2, tiles.size());
+		for (int i = 0; i < tiles.size(); i++) {
+			RandomAccessibleInterval<FloatType> tile = tiles.get(i);
+			long[] offset = offsets.get(i);
+			assertArrayEquals(new long[] {6, 6}, Intervals.dimensionsAsLongArray(tile));
+			RandomAccessibleInterval<FloatType> expected = img;
+			for (int d = img.numDimensions() - 1; d >= 2; d--) {
+				expected = Views.hyperSlice(expected, d, offset[d]);
+			}
+			expected = Views.interval(expected, new long[] {offset[0], offset[1]}, new long[] {offset[0] + 5, offset[1] + 5});
+			Cursor<FloatType> cursor = Views.flatIterable(tile).cursor();
+			for (FloatType pixel : Views.flatIterable(expected)) {
+				assertEquals("tile " + i, pixel.get(), cursor.next().get(), 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarlyStoppingTest {
+
+	private final LogService log = new StderrLogService();
+
+	@Test
+	public void testPatience() {
+		MockTraining training = new MockTraining();
+		EarlyStopping earlyStopping = new EarlyStopping(log, 3, 0.1f, false);
+		// 4 and 3.5 improve, 3.99 is within min delta, 3.6, 3.45 and 3.7 do not improve
+		float[] losses = {5, 4, 3.99f, 3.5f, 3.6f, 3.45f, 3.7f, 3.8f, 3.9f};
+		int epochs = training.run(earlyStopping, losses);
+		assertEquals(7, epochs);
+		assertEquals(7, earlyStopping.getStoppedEpoch());
+		assertTrue(training.isStopped());
+	}
+
+	@Test
+	public void testImproving() {
+		MockTraining training = new MockTraining();
+		EarlyStopping earlyStopping = new EarlyStopping(log, 2, 0, true);
+		float[] losses = {5, 4, 4, 3, 3, 2, 2, 1};
+		assertEquals(losses.length, training.run(earlyStopping, losses));
+		assertEquals(-1, earlyStopping.getStoppedEpoch());
+		earlyStopping.onTrainingDone(training);
+		assertFalse(training.output.restored);
+	}
+
+	@Test
+	public void testSkipsEpochsWithoutValidation() {
+		MockTraining training = new MockTraining();
+		EarlyStopping earlyStopping = new EarlyStopping(log, 2, 0, false);
+		training.run(earlyStopping, new float[] {1});
+		training.validation = false;
+		training.run(earlyStopping, new float[] {2, 3, 4});
+		assertEquals(-1, earlyStopping.getStoppedEpoch());
+		training.validation = true;
+		training.run(earlyStopping, new float[] {2, 3});
+		// epochs are counted with and without validation
+		assertEquals(6, earlyStopping.getStoppedEpoch());
+	}
+
+	@Test
+	public void testRestoreBestCheckpoint() {
+		MockTraining training = new MockTraining();
+		EarlyStopping earlyStopping = new EarlyStopping(log, 1, 0, true);
+		training.run(earlyStopping, new float[] {1, 2});
+		assertEquals(2, earlyStopping.getStoppedEpoch());
+		earlyStopping.onTrainingDone(training);
+		assertTrue(training.output.restored);
+	}
+
+	@Test
+	public void testKeepLastCheckpoint() {
+		MockTraining training = new MockTraining();
+		EarlyStopping earlyStopping = new EarlyStopping(log, 1, 0, false);
+		training.run(earlyStopping, new float[] {1, 2});
+		assertEquals(2, earlyStopping.getStoppedEpoch());
+		earlyStopping.onTrainingDone(training);
+		assertFalse(training.output.restored);
+	}
+
+	private static class MockOutput extends DenoiSegOutputHandler {
+
+		boolean restored = false;
+
+		MockOutput() {
+			super(new DenoiSegConfig(), null, null);
+		}
+
+		@Override
+		synchronized void restoreBestCheckpoint() {
+			restored = true;
+		}
+	}
+
+	private static class MockTraining extends DenoiSegTraining {
+
+		final MockOutput output = new MockOutput();
+		boolean validation = true;
+		private boolean stopped = false;
+
+		MockTraining() {
+			super(new Context(true) {
+				@Override
+				public void inject(Object o) {
+				}
+			});
+		}
+
+		/**
+		 * @return the number of epochs run until training was stopped
+		 */
+		int run(EarlyStopping earlyStopping, float[] losses) {
+			int epoch = 0;
+			while(epoch < losses.length && !stopped) {
+				output.setCurrentValidationLoss(losses[epoch++]);
+				earlyStopping.onEpochDone(this);
+			}
+			return epoch;
+		}
+
+		@Override
+		public DenoiSegOutputHandler output() {
+			return output;
+		}
+
+		@Override
+		public boolean isValidationEpoch() {
+			return validation;
+		}
+
+		@Override
+		public void stopTraining() {
+			stopped = true;
+		}
+
+		@Override
+		public boolean isStopped() {
+			return stopped;
+		}
+	}
+}
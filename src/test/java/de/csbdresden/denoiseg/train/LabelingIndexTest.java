@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LabelingIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPrefixAndSuffix() throws IOException {
+		File raw = folder.newFolder("raw");
+		File labelings = folder.newFolder("labelings");
+		List<File> rawFiles = files(raw, "img01.tif", "img02.tif", "img03.png", "img04.tif");
+		files(labelings, "mask_img01_labels.tif", "mask_img02_labels.tif", "mask_img03_labels.tif",
+				"img04_labels.tif", "mask_img05_labels.tif", "mask__labels.tif", "mask_labels.tif");
+		LabelingIndex index = new LabelingIndex(labelings, "mask_", "_labels");
+		assertEquals(new File(labelings, "mask_img01_labels.tif"), index.get(rawFiles.get(0)));
+		assertEquals(new File(labelings, "mask_img02_labels.tif"), index.get(rawFiles.get(1)));
+		// the extension has to match
+		assertNull(index.get(rawFiles.get(2)));
+		// the prefix is missing
+		assertNull(index.get(rawFiles.get(3)));
+		assertEquals(Arrays.asList(rawFiles.get(2), rawFiles.get(3)), index.unmatchedRawFiles(rawFiles));
+		assertEquals(Arrays.asList(
+				new File(labelings, "img04_labels.tif"),
+				new File(labelings, "mask__labels.tif"),
+				new File(labelings, "mask_img03_labels.tif"),
+				new File(labelings, "mask_img05_labels.tif"),
+				new File(labelings, "mask_labels.tif")),
+				index.unmatchedLabelingFiles(rawFiles));
+	}
+
+	@Test
+	public void testSameNames() throws IOException {
+		File raw = folder.newFolder("raw");
+		File labelings = folder.newFolder("labelings");
+		List<File> rawFiles = files(raw, "a.tif", "b.tif", "c");
+		files(labelings, "a.tif", "c", "d.tif");
+		LabelingIndex index = new LabelingIndex(labelings, "", "");
+		assertEquals(new File(labelings, "a.tif"), index.get(rawFiles.get(0)));
+		assertEquals(new File(labelings, "c"), index.get(rawFiles.get(2)));
+		assertEquals(Collections.singletonList(rawFiles.get(1)), index.unmatchedRawFiles(rawFiles));
+		assertEquals(Collections.singletonList(new File(labelings, "d.tif")), index.unmatchedLabelingFiles(rawFiles));
+	}
+
+	@Test
+	public void testSuffixOnly() throws IOException {
+		File raw = folder.newFolder("raw");
+		File labelings = folder.newFolder("labelings");
+		List<File> rawFiles = files(raw, "img.01.tif", "img_labels.tif");
+		files(labelings, "img.01_labels.tif", "img_labels_labels.tif", "img.01.tif");
+		LabelingIndex index = new LabelingIndex(labelings, "", "_labels");
+		// only the last extension is removed before matching
+		assertEquals(new File(labelings, "img.01_labels.tif"), index.get(rawFiles.get(0)));
+		assertEquals(new File(labelings, "img_labels_labels.tif"), index.get(rawFiles.get(1)));
+		assertEquals(Collections.emptyList(), index.unmatchedRawFiles(rawFiles));
+		assertEquals(Collections.singletonList(new File(labelings, "img.01.tif")), index.unmatchedLabelingFiles(rawFiles));
+	}
+
+	private static List<File> files(File directory, String... names) throws IOException {
+		File[] res = new File[names.length];
+		for (int i = 0; i < names.length; i++) {
+			res[i] = new File(directory, names[i]);
+			if(!res[i].createNewFile()) throw new IOException("Could not create " + res[i]);
+		}
+		return Arrays.asList(res);
+	}
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tiles of an image kept in its native type, converted to float through a
+ * view, have to give the same normalized patches as tiles of a float copy.
+ */
+public class NativeSourceTilesTest {
+
+	private static final long[] dims = {50, 37};
+	private static final int patchShape = 8;
+
+	@Test
+	public void testArrayImage() {
+		assertSameTiles(fill(ArrayImgs.unsignedShorts(dims)));
+	}
+
+	@Test
+	public void testPlanarImage() {
+		assertSameTiles(fill(PlanarImgs.unsignedShorts(dims)));
+	}
+
+	@Test
+	public void testCellImage() {
+		assertSameTiles(fill(new CellImgFactory<>(new UnsignedShortType(), 13, 11).create(dims)));
+	}
+
+	private static void assertSameTiles(Img<UnsignedShortType> img) {
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(dims);
+		Random random = new Random(1);
+		classes.forEach(pixel -> pixel.set(random.nextInt(4)));
+		RandomAccessibleInterval<FloatType> oneHot = new OneHotLabels(classes);
+		RandomAccessibleInterval<FloatType> view = Converters.convert((RandomAccessibleInterval<UnsignedShortType>) img,
+				new RealFloatConverter<>(), new FloatType());
+		RandomAccessibleInterval<FloatType> copy = ArrayImgs.floats(dims);
+		LoopBuilder.setImages(view, copy).forEachPixel((in, out) -> out.set(in));
+		for (long stride : new long[] {0, 5}) {
+			TrainingDataCollection<FloatType> nativeTiles = normalized(DenoiSegDataGenerator.createTiles(view, oneHot, 2, patchShape, stride, null));
+			TrainingDataCollection<FloatType> floatTiles = normalized(DenoiSegDataGenerator.createTiles(copy, oneHot, 2, patchShape, stride, null));
+			assertTrue(nativeTiles.size() > 0);
+			assertEquals(floatTiles.size(), nativeTiles.size());
+			for (int i = 0; i < nativeTiles.size(); i++) {
+				RandomAccessibleInterval<FloatType> input = nativeTiles.get(i).input;
+				assertTrue("tile " + i + " copied by rows", copiesRows(input));
+				assertArrayEquals("tile " + i, patch(floatTiles.get(i).input), patch(input), 0);
+			}
+		}
+	}
+
+	private static TrainingDataCollection<FloatType> normalized(TrainingDataCollection<FloatType> tiles) {
+		TrainingDataCollection<FloatType> res = new TrainingDataCollection<>();
+		for (TrainingData<FloatType> tile : tiles) {
+			// channel and batch dimension as added by the InputHandler
+			res.add(new TrainingData<>(Views.addDimension(Views.addDimension(tile.input, 0, 0), 0, 0), tile.outSegment));
+		}
+		TrainUtils.normalize(res, new FloatType(1000), new FloatType(300), DenoiSegConfig.TileStorage.VIEW);
+		return res;
+	}
+
+	private static float[] patch(RandomAccessibleInterval<FloatType> tile) {
+		int[] patchDims = {(int) tile.dimension(0), (int) tile.dimension(1)};
+		float[] res = new float[patchDims[0] * patchDims[1]];
+		PatchCopy.copy(tile, new long[tile.numDimensions()], patchDims, res, 1, null);
+		return res;
+	}
+
+	private static Img<UnsignedShortType> fill(Img<UnsignedShortType> img) {
+		Random random = new Random(7);
+		img.forEach(pixel -> pixel.set(random.nextInt(65536)));
+		return img;
+	}
+
+	private static boolean copiesRows(RandomAccessibleInterval<?> source) {
+		try {
+			Method layout = PatchCopy.class.getDeclaredMethod("layout", RandomAccessible.class);
+			layout.setAccessible(true);
+			return layout.invoke(null, source) != null;
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NormalizationStatisticsTest {
+
+	@Test
+	public void testFullPassMatchesTwoPass() {
+		List<RandomAccessibleInterval<FloatType>> images = randomImages();
+		List<Double> values = new ArrayList<>();
+		images.forEach(image -> Views.flatIterable(image).forEach(pixel -> values.add(pixel.getRealDouble())));
+		NormalizationStatistics stats = NormalizationStatistics.compute(images, 1, 0, null);
+		assertEquals(values.size(), stats.getCount());
+		assertTwoPass(values, stats);
+		assertSame(stats, computeInPool(images, 1, 0));
+	}
+
+	@Test
+	public void testSampledPassMatchesTwoPass() {
+		List<RandomAccessibleInterval<FloatType>> images = randomImages();
+		// the converter is only called for the pixels the sampling reads
+		List<Double> values = new ArrayList<>();
+		List<RandomAccessibleInterval<DoubleType>> recording = new ArrayList<>();
+		images.forEach(image -> recording.add(Converters.convert(image, (in, out) -> {
+			values.add((double) in.get());
+			out.set(in.get());
+		}, new DoubleType())));
+		NormalizationStatistics stats = NormalizationStatistics.compute(recording, 0.1, 42, null);
+		long total = 0;
+		for (RandomAccessibleInterval<FloatType> image : images) {
+			total += Views.flatIterable(image).size();
+		}
+		assertEquals(values.size(), stats.getCount());
+		assertTrue("sampled " + values.size() + " of " + total, Math.abs(values.size() - 0.1 * total) < 0.01 * total);
+		assertTwoPass(values, stats);
+		assertSame(stats, computeInPool(images, 0.1, 42));
+	}
+
+	@Test
+	public void testInvalidFraction() {
+		List<RandomAccessibleInterval<FloatType>> images = randomImages();
+		for (double fraction : new double[] {0, -0.5, 1.5, Double.NaN}) {
+			try {
+				NormalizationStatistics.compute(images, fraction, 0, null);
+				fail("fraction " + fraction + " accepted");
+			} catch (IllegalArgumentException expected) {
+				// expected
+			}
+		}
+	}
+
+	private static List<RandomAccessibleInterval<FloatType>> randomImages() {
+		Random random = new Random(7);
+		List<RandomAccessibleInterval<FloatType>> images = new ArrayList<>();
+		long[][] sizes = {{64, 48}, {17, 33}, {1, 1}, {100, 90}, {31, 29, 3}};
+		for (long[] size : sizes) {
+			RandomAccessibleInterval<FloatType> image = ArrayImgs.floats(size);
+			// large offset so a naive sum of squares would lose precision
+			Views.flatIterable(image).forEach(pixel -> pixel.set((float) (1000 + 10 * random.nextGaussian())));
+			images.add(image);
+		}
+		return images;
+	}
+
+	private static NormalizationStatistics computeInPool(List<RandomAccessibleInterval<FloatType>> images, double fraction, long seed) {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			return NormalizationStatistics.compute(images, fraction, seed, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void assertTwoPass(List<Double> values, NormalizationStatistics stats) {
+		double mean = 0;
+		for (double value : values) {
+			mean += value;
+		}
+		mean /= values.size();
+		double squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		double std = Math.sqrt(squares / (values.size() - 1));
+		assertEquals(mean, stats.getMean(), 1e-9 * Math.abs(mean));
+		assertEquals(std, stats.getStdDev(), 1e-9 * std);
+	}
+
+	private static void assertSame(NormalizationStatistics expected, NormalizationStatistics actual) {
+		assertEquals(expected.getCount(), actual.getCount());
+		assertEquals(expected.getMean(), actual.getMean(), 0);
+		assertEquals(expected.getVariance(), actual.getVariance(), 0);
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OneHotLabelsTest {
+
+	private static final byte[] allClasses = {
+			OneHotLabels.BACKGROUND, OneHotLabels.FOREGROUND, OneHotLabels.BORDER, OneHotLabels.UNLABELED};
+
+	@Test
+	public void testClassToChannel() {
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(allClasses, 2, 2);
+		OneHotLabels labels = new OneHotLabels(classes);
+		assertArrayEquals(new long[] {2, 2, OneHotLabels.numClasses}, Intervals.dimensionsAsLongArray(labels));
+		float[][] expected = {
+				{1, 0, 0},
+				{0, 1, 0},
+				{0, 0, 1},
+				{0, 0, 0}};
+		RandomAccess<FloatType> access = labels.randomAccess();
+		for (int i = 0; i < allClasses.length; i++) {
+			float[] channels = new float[OneHotLabels.numClasses];
+			for (int c = 0; c < channels.length; c++) {
+				access.setPosition(new long[] {i % 2, i / 2, c});
+				channels[c] = access.get().get();
+			}
+			assertArrayEquals("class " + allClasses[i], expected[i], channels, 0);
+		}
+	}
+
+	@Test
+	public void testChannelsOfViews() {
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(5, 4, 3);
+		Cursor<UnsignedByteType> cursor = classes.localizingCursor();
+		while(cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(allClasses[(cursor.getIntPosition(0) + 2 * cursor.getIntPosition(1) + cursor.getIntPosition(2)) % allClasses.length]);
+		}
+		OneHotLabels labels = new OneHotLabels(classes);
+		for (int c = 0; c < OneHotLabels.numClasses; c++) {
+			Cursor<UnsignedByteType> expected = Views.flatIterable(classes).cursor();
+			for (FloatType value : Views.flatIterable(Views.hyperSlice(labels, 3, c))) {
+				assertEquals(expected.next().get() == c ? 1 : 0, value.get(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testToClasses() {
+		float[] oneHot = {
+				// background channel
+				1, 0, 0, 0, 0, 1,
+				// foreground channel
+				0, 1, 0, 0, 0, 0,
+				// border channel
+				0, 0, 1, 0, 0, 0};
+		ArrayImg<FloatType, FloatArray> image = ArrayImgs.floats(oneHot, 6, 1, 3);
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(6, 1);
+		OneHotLabels.toClasses(image, classes);
+		assertArrayEquals(new byte[] {
+				OneHotLabels.BACKGROUND, OneHotLabels.FOREGROUND, OneHotLabels.BORDER,
+				OneHotLabels.UNLABELED, OneHotLabels.UNLABELED, OneHotLabels.BACKGROUND},
+				classes.update(null).getCurrentStorageArray());
+		Cursor<FloatType> expected = Views.flatIterable(image).cursor();
+		for (FloatType value : Views.flatIterable(new OneHotLabels(classes))) {
+			assertEquals(expected.next().get(), value.get(), 0);
+		}
+	}
+}
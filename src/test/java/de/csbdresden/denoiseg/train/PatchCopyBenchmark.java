@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies one patch out of a training tile with the row based fast path of
+ * {@link PatchCopy}, its cursor based fallback and the former per pixel
+ * {@code localizingCursor} / {@code setPosition} pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 4, time = 1)
+@Measurement(iterations = 8, time = 1)
+@Fork(1)
+public class PatchCopyBenchmark {
+
+	@Param({"2", "3"})
+	public int dimensions;
+
+	@Param({"32", "64"})
+	public int patchSize;
+
+	private RandomAccessibleInterval<FloatType> arrayTile;
+	private RandomAccessibleInterval<FloatType> viewTile;
+	private RandomAccessibleInterval<FloatType> convertedTile;
+	private long[] min;
+	private long[] max;
+	private int[] patchDims;
+	private float[] target;
+	private RandomAccessibleInterval<FloatType> targetImg;
+
+	@Setup
+	public void setup() {
+		// tiles are twice the patch size, with a trailing channel dimension
+		long[] tileDims = new long[dimensions + 1];
+		Arrays.fill(tileDims, 2L * patchSize);
+		tileDims[dimensions] = 1;
+		ArrayImg<FloatType, ?> tile = ArrayImgs.floats(tileDims);
+		Random random = new Random(42);
+		tile.forEach(pixel -> pixel.set(random.nextFloat()));
+		arrayTile = tile;
+
+		long[] imageDims = tileDims.clone();
+		long[] tileMin = new long[dimensions + 1];
+		long[] tileMax = new long[dimensions + 1];
+		for (int d = 0; d < dimensions; d++) {
+			imageDims[d] = 3L * patchSize;
+			tileMin[d] = patchSize / 2;
+			tileMax[d] = tileMin[d] + 2L * patchSize - 1;
+		}
+		viewTile = Views.zeroMin(Views.interval(ArrayImgs.floats(imageDims), tileMin, tileMax));
+		convertedTile = Converters.convert(arrayTile, (in, out) -> out.set(in), new FloatType());
+
+		min = new long[dimensions + 1];
+		max = new long[dimensions + 1];
+		patchDims = new int[dimensions];
+		long[] targetDims = new long[dimensions + 1];
+		for (int d = 0; d < dimensions; d++) {
+			min[d] = patchSize / 3;
+			max[d] = min[d] + patchSize - 1;
+			patchDims[d] = patchSize;
+			targetDims[d] = patchSize;
+		}
+		targetDims[dimensions] = 1;
+		target = new float[(int) Math.pow(patchSize, dimensions)];
+		targetImg = ArrayImgs.floats(target, targetDims);
+	}
+
+	@Benchmark
+	public float[] arrayImg() {
+		PatchCopy.copy(arrayTile, min, patchDims, target, 1, null);
+		return target;
+	}
+
+	@Benchmark
+	public float[] intervalView() {
+		PatchCopy.copy(viewTile, min, patchDims, target, 1, null);
+		return target;
+	}
+
+	@Benchmark
+	public float[] cursorFallback() {
+		PatchCopy.copy(convertedTile, min, patchDims, target, 1, null);
+		return target;
+	}
+
+	@Benchmark
+	public float[] localizingCursor() {
+		Cursor<FloatType> in = Views.zeroMin(Views.interval(arrayTile, min, max)).localizingCursor();
+		RandomAccess<FloatType> out = targetImg.randomAccess();
+		while(in.hasNext()) {
+			in.fwd();
+			out.setPosition(in);
+			out.get().set(in.get());
+		}
+		return target;
+	}
+
+	public static void main(String... args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(PatchCopyBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,218 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.list.ListImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PatchCopyTest {
+
+	private static final long[] dims = {20, 18, 2};
+	private static final int[] patchDims = {8, 8};
+
+	@Test
+	public void testArrayTypes() {
+		assertRows("float", fill(ArrayImgs.floats(dims)));
+		assertRows("double", fill(ArrayImgs.doubles(dims)));
+		assertRows("int", fill(ArrayImgs.ints(dims)));
+		assertRows("unsigned int", fill(ArrayImgs.unsignedInts(dims)));
+		assertRows("short", fill(ArrayImgs.shorts(dims)));
+		assertRows("unsigned short", fill(ArrayImgs.unsignedShorts(dims)));
+		assertRows("byte", fill(ArrayImgs.bytes(dims)));
+		assertRows("unsigned byte", fill(ArrayImgs.unsignedBytes(dims)));
+		assertRows("float buffer", fill(FloatBufferAccess.floats(dims)));
+	}
+
+	@Test
+	public void testPlanarAndCellImages() {
+		assertRows("planar float", fill(PlanarImgs.floats(dims)));
+		assertRows("planar unsigned short", fill(PlanarImgs.unsignedShorts(dims)));
+		assertRows("cell float", fill(new CellImgFactory<>(new FloatType(), 7, 5, 1).create(dims)));
+		assertRows("cell 3D patch", fill(new CellImgFactory<>(new FloatType(), 7, 5, 2, 1).create(20, 18, 5, 2)), 8, 8, 3);
+	}
+
+	@Test
+	public void testOneHotLabels() {
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(20, 18);
+		Random random = new Random(3);
+		classes.forEach(pixel -> pixel.set(random.nextInt(4)));
+		assertRows("one hot array", new OneHotLabels(classes));
+		byte[] bytes = classes.update(null).getCurrentStorageArray();
+		ByteBufferAccess buffer = new ByteBufferAccess(ByteBuffer.wrap(bytes.clone()));
+		assertRows("one hot buffer", new OneHotLabels(ByteBufferAccess.unsignedBytes(buffer, 20, 18)));
+		assertRows("one hot tile", new Tile<>(new OneHotLabels(classes), new long[] {2, 1, 0}, new long[] {16, 15, 3}, true));
+	}
+
+	@Test
+	public void testViewChains() {
+		Img<FloatType> floats = fill(ArrayImgs.floats(dims));
+		assertRows("normalized", new NormalizedTile(floats, 3, 7));
+		assertRows("converted", Converters.convert((RandomAccessibleInterval<UnsignedByteType>) fill(ArrayImgs.unsignedBytes(dims)),
+				new RealFloatConverter<>(), new FloatType()));
+		assertRows("interval", Views.interval(floats, new long[] {3, 2, 0}, new long[] {17, 16, 1}));
+		assertRows("translated", Views.translate(floats, 5, -4, 0));
+		assertRows("permuted", Views.permute(floats, 0, 1));
+		assertRows("inverted", Views.zeroMin(Views.invertAxis(floats, 1)));
+		Img<FloatType> stack = fill(ArrayImgs.floats(20, 18, 4, 2));
+		assertRows("hyper slice", Views.hyperSlice(stack, 2, 3));
+		assertRows("tile", new Tile<>(stack, new long[] {4, 2, 1, 0}, new long[] {12, 14, 2}, true));
+		assertRows("normalized tile", new NormalizedTile(new Tile<>(FloatBufferAccess.floats(20, 18, 4, 2),
+				new long[] {4, 2, 1, 0}, new long[] {12, 14, 2}, true), 1, 2));
+		RandomAccessibleInterval<UnsignedByteType> view = Views.zeroMin(Views.interval(Views.permute(Views.invertAxis(
+				fill(PlanarImgs.unsignedBytes(dims)), 0), 0, 1), new long[] {1, -19, 0}, new long[] {16, -2, 1}));
+		assertRows("chain", new NormalizedTile(Converters.convert(view, new RealFloatConverter<>(), new FloatType()), 10, 4));
+	}
+
+	@Test
+	public void testCursorFallback() {
+		Img<FloatType> floats = fill(ArrayImgs.floats(dims));
+		assertCursor("list", fill(new ListImgFactory<>(new FloatType()).create(dims)));
+		assertCursor("generic converter", Converters.convert((RandomAccessibleInterval<FloatType>) floats,
+				(in, out) -> out.set(in.get() * 2), new FloatType()));
+		assertCursor("extended", Views.interval(Views.extendMirrorSingle(floats), new long[] {-4, -4, 0}, new long[] {15, 13, 1}));
+		assertCursor("subsampled", Views.subsample(fill(ArrayImgs.floats(40, 36, 2)), 2, 2, 1));
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(20, 18);
+		classes.forEach(pixel -> pixel.set(1));
+		// channels along a patch row
+		assertCursor("one hot permuted", Views.permute(new OneHotLabels(classes), 0, 2), 3, 3);
+	}
+
+	private static <T extends RealType<T>> Img<T> fill(Img<T> img) {
+		Random random = new Random(img.size());
+		double max = Math.min(img.firstElement().getMaxValue(), 1 << 20);
+		double min = Math.max(img.firstElement().getMinValue(), -(1 << 20));
+		img.forEach(pixel -> pixel.setReal(Math.floor(min + random.nextDouble() * (max - min))));
+		return img;
+	}
+
+	private static void assertRows(String name, RandomAccessibleInterval<? extends RealType<?>> source, int... patch) {
+		assertPath(name, source, patch.length == 0 ? patchDims : patch, true);
+	}
+
+	private static void assertCursor(String name, RandomAccessibleInterval<? extends RealType<?>> source, int... patch) {
+		assertPath(name, source, patch.length == 0 ? patchDims : patch, false);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static void assertPath(String name, RandomAccessibleInterval<? extends RealType<?>> source, int[] patch, boolean rows) {
+		assertEquals(name + " copied by rows", rows, copiesRows(source, patch.length));
+		int numChannels = 1;
+		for (int d = patch.length; d < source.numDimensions(); d++) {
+			numChannels *= source.dimension(d);
+		}
+		int size = numChannels;
+		for (int d : patch) {
+			size *= d;
+		}
+		int[][] transforms = DenoiSegDataGenerator.dihedralIndices(patch[0]);
+		Random random = new Random(5);
+		for (int i = 0; i < 4; i++) {
+			long[] min = new long[source.numDimensions()];
+			source.min(min);
+			for (int d = 0; d < patch.length; d++) {
+				min[d] += random.nextInt((int) source.dimension(d) - patch[d] + 1);
+			}
+			for (int t = -1; t < transforms.length; t++) {
+				int[] planeIndices = t < 0 ? null : transforms[t];
+				float[] expected = new float[size];
+				float[] actual = new float[size];
+				Arrays.fill(actual, Float.NaN);
+				copyPlain(source, min, patch, expected, numChannels, planeIndices);
+				PatchCopy.copy((RandomAccessibleInterval) source, min, patch, actual, numChannels, planeIndices);
+				assertArrayEquals(name + " at " + Arrays.toString(min) + ", transform " + t, expected, actual, 0);
+			}
+		}
+	}
+
+	/**
+	 * Plain copy through a random access, pixel by pixel.
+	 */
+	private static void copyPlain(RandomAccessibleInterval<? extends RealType<?>> source, long[] min, int[] patch, float[] target, int numChannels, int[] planeIndices) {
+		RandomAccess<? extends RealType<?>> access = source.randomAccess();
+		int n = patch.length;
+		int planeSize = patch[0] * patch[1];
+		int patchSize = target.length / numChannels;
+		long[] position = new long[source.numDimensions()];
+		for (int c = 0; c < numChannels; c++) {
+			int rest = c;
+			for (int d = n; d < position.length; d++) {
+				position[d] = source.min(d) + rest % source.dimension(d);
+				rest /= source.dimension(d);
+			}
+			for (int p = 0; p < patchSize; p++) {
+				rest = p;
+				for (int d = 0; d < n; d++) {
+					position[d] = min[d] + rest % patch[d];
+					rest /= patch[d];
+				}
+				int inPlane = p % planeSize;
+				int index = p - inPlane + (planeIndices == null ? inPlane : planeIndices[inPlane]);
+				access.setPosition(position);
+				target[index * numChannels + c] = access.get().getRealFloat();
+			}
+		}
+	}
+
+	private static boolean copiesRows(RandomAccessibleInterval<?> source, int numPatchDimensions) {
+		try {
+			Method layout = PatchCopy.class.getDeclaredMethod("layout", RandomAccessible.class);
+			layout.setAccessible(true);
+			Object res = layout.invoke(null, source);
+			if(res == null) return false;
+			Method channelPerRow = PatchCopy.class.getDeclaredMethod("channelPerRow", res.getClass(), int.class);
+			channelPerRow.setAccessible(true);
+			return (boolean) channelPerRow.invoke(null, res, numPatchDimensions);
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+import org.tensorflow.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SeededBatchesTest {
+
+	@Test
+	public void testSeededRunsProduceIdenticalBatches() {
+		assertSameBatches(batches(42L, 3), batches(42L, 3));
+	}
+
+	@Test
+	public void testBatchesDoNotDependOnThreadCount() {
+		List<float[]> sequential = batches(42L, 1);
+		assertSameBatches(sequential, batches(42L, 2));
+		assertSameBatches(sequential, batches(42L, 3));
+	}
+
+	@Test
+	public void testDifferentSeedsProduceDifferentBatches() {
+		List<float[]> first = batches(42L, 1);
+		List<float[]> second = batches(42L + 1, 1);
+		assertFalse(Arrays.equals(first.get(0), second.get(0)));
+	}
+
+	private static void assertSameBatches(List<float[]> expected, List<float[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("batch tensor " + i, Arrays.toString(expected.get(i)), Arrays.toString(actual.get(i)));
+		}
+	}
+
+	/**
+	 * Shuffles the items like {@link InputHandler#finalizeTrainingData()} and
+	 * collects the tensors of all batches of two epochs.
+	 *
+	 * @param threads number of threads preparing the patches of a batch, {@code 1} prepares them on the calling thread
+	 */
+	private static List<float[]> batches(Long seed, int threads) {
+		Random random = new Random(1);
+		TrainingDataCollection<FloatType> data = new TrainingDataCollection<>();
+		for (int i = 0; i < 12; i++) {
+			ArrayImg<FloatType, FloatArray> input = ArrayImgs.floats(32, 32, 1, 1);
+			ArrayImg<FloatType, FloatArray> labeling = ArrayImgs.floats(32, 32, 1, 3);
+			input.forEach(pixel -> pixel.set(random.nextFloat()));
+			labeling.forEach(pixel -> pixel.set(random.nextInt(2)));
+			data.add(new TrainingData<>(input, labeling));
+		}
+		InputHandler.shuffle(data, seed, 2);
+		List<float[]> res = new ArrayList<>();
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try (DenoiSegDataWrapper<FloatType> wrapper = new DenoiSegDataWrapper<>(data, 5, 1.6,
+				new FinalDimensions(16, 16), new UniformNeighborManipulator(2))) {
+			wrapper.setSeed(seed);
+			wrapper.setPool(pool);
+			wrapper.setRandomAugmentation(true);
+			for (int epoch = 0; epoch < 2; epoch++) {
+				for (int i = 0; i < wrapper.numBatches(); i++) {
+					try (TrainingBatch batch = wrapper.getBatch(i)) {
+						res.add(values(batch.input));
+						res.add(values(batch.outDenoise));
+						res.add(values(batch.outSegment));
+					}
+				}
+				wrapper.on_epoch_end();
+			}
+		} finally {
+			if(pool != null) pool.shutdown();
+		}
+		return res;
+	}
+
+	private static float[] values(Tensor<?> tensor) {
+		FloatBuffer buffer = FloatBuffer.allocate(tensor.numElements());
+		tensor.writeTo(buffer);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one training step of the 2D graph for different TensorFlow
+ * thread pool sizes, optionally next to busy threads standing in for the
+ * data preparation. Every parameter combination runs in its own fork since
+ * the pools are created once per process, see {@link TensorFlowThreads}.
+ * Restrict the sweep to the cores of a node with e.g.
+ * {@code -p intraOp=4,8,16 -p interOp=1,2}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TensorFlowThreadsBenchmark {
+
+	private static final int batchSize = 16;
+	private static final int patchSize = 64;
+
+	@Param({"0", "1", "2", "4"})
+	public int intraOp;
+
+	@Param({"0", "1", "2"})
+	public int interOp;
+
+	@Param({"0", "2"})
+	public int busyThreads;
+
+	private Graph graph;
+	private Session session;
+	private final List<Tensor<?>> feeds = new ArrayList<>();
+	private final List<Thread> busy = new ArrayList<>();
+	private volatile boolean running;
+
+	@Setup
+	public void setup() throws IOException {
+		graph = new Graph();
+		try (InputStream stream = getClass().getResourceAsStream("/denoiseg_graph_2d.pb")) {
+			byte[] graphDef = new byte[stream.available()];
+			int read = 0;
+			while (read < graphDef.length) read += stream.read(graphDef, read, graphDef.length - read);
+			graph.importGraphDef(graphDef);
+		}
+		session = TensorFlowThreads.createSession(graph, intraOp, interOp);
+		session.runner().addTarget("init").run();
+		Random random = new Random(42);
+		feeds.add(tensor(random, BatchBuffers.inputChannels));
+		feeds.add(tensor(random, BatchBuffers.denoiseChannels));
+		feeds.add(tensor(random, BatchBuffers.segmentChannels));
+		float[] weights = new float[batchSize];
+		Arrays.fill(weights, 1);
+		feeds.add(Tensors.create(weights));
+		feeds.add(Tensors.create(true));
+		feeds.add(Tensors.create(0.0004f));
+		running = true;
+		for (int i = 0; i < busyThreads; i++) {
+			Thread thread = new Thread(() -> {
+				double x = 0;
+				while (running) x = Math.sin(x + 1);
+			});
+			thread.setDaemon(true);
+			thread.start();
+			busy.add(thread);
+		}
+	}
+
+	private static Tensor<Float> tensor(Random random, int channels) {
+		float[] data = new float[batchSize * patchSize * patchSize * channels];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat();
+		}
+		return Tensor.create(new long[] {batchSize, patchSize, patchSize, channels}, FloatBuffer.wrap(data));
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		running = false;
+		for (Thread thread : busy) {
+			thread.join();
+		}
+		feeds.forEach(Tensor::close);
+		session.close();
+		graph.close();
+	}
+
+	@Benchmark
+	public float trainingStep() {
+		List<Tensor<?>> fetched = session.runner()
+				.feed("input", feeds.get(0))
+				.feed("out_denoise_target", feeds.get(1))
+				.feed("out_segment_target", feeds.get(2))
+				.feed("out_denoise_sample_weights", feeds.get(3))
+				.feed("out_segment_sample_weights", feeds.get(3))
+				.feed("keras_learning_phase", feeds.get(4))
+				.feed("write_learning_rate", feeds.get(5))
+				.addTarget("train")
+				.fetch("loss_tensor")
+				.run();
+		float loss = fetched.get(0).floatValue();
+		fetched.forEach(Tensor::close);
+		return loss;
+	}
+
+	public static void main(String... args) throws RunnerException, CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(TensorFlowThreadsBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
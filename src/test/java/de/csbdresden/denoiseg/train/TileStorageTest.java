@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Materialized normalized tiles have to hold the values the normalizing
+ * view computes on every access.
+ */
+public class TileStorageTest {
+
+	private final FloatType mean = new FloatType(0.4f);
+	private final FloatType stdDev = new FloatType(0.3f);
+
+	@Test
+	public void testDefaultIsView() {
+		assertEquals(DenoiSegConfig.TileStorage.VIEW, new DenoiSegConfig().getTileStorage());
+	}
+
+	@Test
+	public void testHeap() {
+		assertSameAsView(DenoiSegConfig.TileStorage.HEAP);
+	}
+
+	@Test
+	public void testOffHeap() {
+		assertSameAsView(DenoiSegConfig.TileStorage.OFF_HEAP);
+	}
+
+	private void assertSameAsView(DenoiSegConfig.TileStorage storage) {
+		TrainingDataCollection<FloatType> view = tiles();
+		TrainingDataCollection<FloatType> stored = tiles();
+		TrainUtils.normalize(view, mean, stdDev, DenoiSegConfig.TileStorage.VIEW);
+		TrainUtils.normalize(stored, mean, stdDev, storage);
+		assertEquals(view.size(), stored.size());
+		for (int i = 0; i < view.size(); i++) {
+			RandomAccessibleInterval<FloatType> expected = view.get(i).input;
+			RandomAccessibleInterval<FloatType> actual = stored.get(i).input;
+			assertTrue("tile " + i + " materialized", actual instanceof ArrayImg);
+			assertArrayEquals("tile " + i, values(expected), values(actual), 0);
+			assertArrayEquals("patch of tile " + i, patch(expected), patch(actual), 0);
+			// the labels are not normalized
+			assertArrayEquals("labels of tile " + i, values(view.get(i).outSegment), values(stored.get(i).outSegment), 0);
+		}
+	}
+
+	/**
+	 * Tiles with channel and batch dimension, as created by the InputHandler.
+	 */
+	private static TrainingDataCollection<FloatType> tiles() {
+		Random random = new Random(3);
+		TrainingDataCollection<FloatType> res = new TrainingDataCollection<>();
+		for (int i = 0; i < 5; i++) {
+			ArrayImg<FloatType, FloatArray> input = ArrayImgs.floats(16, 12, 1, 1);
+			ArrayImg<FloatType, FloatArray> labeling = ArrayImgs.floats(16, 12, 1, 3);
+			input.forEach(pixel -> pixel.set(random.nextFloat()));
+			labeling.forEach(pixel -> pixel.set(random.nextInt(2)));
+			res.add(new TrainingData<>(input, labeling));
+		}
+		return res;
+	}
+
+	private static float[] values(RandomAccessibleInterval<FloatType> img) {
+		float[] res = new float[(int) Views.iterable(img).size()];
+		Cursor<FloatType> cursor = Views.flatIterable(img).cursor();
+		for (int i = 0; i < res.length; i++) {
+			res[i] = cursor.next().get();
+		}
+		return res;
+	}
+
+	private static float[] patch(RandomAccessibleInterval<FloatType> tile) {
+		int[] patchDims = {8, 8};
+		float[] res = new float[patchDims[0] * patchDims[1]];
+		PatchCopy.copy(tile, new long[] {5, 3, 0, 0}, patchDims, res, 1, DenoiSegDataGenerator.dihedralIndices(8)[3]);
+		return res;
+	}
+}
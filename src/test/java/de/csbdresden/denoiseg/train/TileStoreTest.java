@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TileStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testFileHoldsOnlyAllocatedBytes() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("tiles.bin");
+		RandomAccessibleInterval<FloatType> floats = randomFloats(10, 10);
+		RandomAccessibleInterval<UnsignedByteType> bytes = ArrayImgs.unsignedBytes(new byte[] {1, 2, 3, 4, 5, 6, 7}, 7, 1);
+		TileStore.Entry floatEntry;
+		TileStore.Entry byteEntry;
+		try (TileStore store = TileStore.create(file)) {
+			floatEntry = store.addFloats(floats);
+			byteEntry = store.addBytes(bytes);
+		}
+		// 400 bytes of floats, 7 bytes padded to 8
+		assertEquals(408, Files.size(file));
+		try (TileStore store = TileStore.open(file)) {
+			assertSame(floats, store.floats(floatEntry));
+			assertSame(bytes, store.bytes(byteEntry));
+		}
+	}
+
+	@Test
+	public void testTilesBehindTheMapping() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("tiles.bin");
+		List<RandomAccessibleInterval<FloatType>> tiles = new ArrayList<>();
+		List<RandomAccessibleInterval<FloatType>> stored = new ArrayList<>();
+		try (TileStore store = TileStore.create(file)) {
+			// 4 MiB each, the segment is mapped again several times
+			for (int i = 0; i < 10; i++) {
+				tiles.add(randomFloats(1024, 1024));
+				stored.add(store.floats(store.addFloats(tiles.get(i))));
+			}
+			for (int i = 0; i < tiles.size(); i++) {
+				assertSame(tiles.get(i), stored.get(i));
+			}
+		}
+		assertEquals(10L << 22, Files.size(file));
+	}
+
+	@Test
+	public void testTemporaryFileDeleted() throws IOException {
+		File directory = folder.newFolder();
+		TileStore store = TileStore.createTemporary(directory);
+		// the tile keeps a mapped buffer reachable while the store is closed
+		RandomAccessibleInterval<FloatType> tile = store.floats(store.addFloats(randomFloats(16, 16)));
+		assertEquals(1, directory.list().length);
+		store.close();
+		assertEquals(0, directory.list().length);
+		assertEquals(16, tile.dimension(0));
+	}
+
+	private static RandomAccessibleInterval<FloatType> randomFloats(long... dims) {
+		Random random = new Random(dims[0]);
+		RandomAccessibleInterval<FloatType> res = ArrayImgs.floats(dims);
+		Views.flatIterable(res).forEach(pixel -> pixel.set(random.nextFloat()));
+		return res;
+	}
+
+	private static <T extends RealType<T>> void assertSame(RandomAccessibleInterval<T> expected, RandomAccessibleInterval<T> actual) {
+		assertArrayEquals(Views.flatIterable(expected).dimensionsAsLongArray(), Views.flatIterable(actual).dimensionsAsLongArray());
+		Cursor<T> cursor = Views.flatIterable(actual).cursor();
+		for (T pixel : Views.flatIterable(expected)) {
+			assertEquals(pixel.getRealDouble(), cursor.next().getRealDouble(), 0);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrainingBatchPrefetcherTest {
+
+	@Test
+	public void testOrder() {
+		AtomicInteger requested = new AtomicInteger();
+		TrainingBatchPrefetcher.BatchFactory factory = () -> {
+			int index = requested.getAndIncrement();
+			return () -> {
+				// earlier batches take longer, so the workers finish out of order
+				sleep(index % 4 == 0 ? 20 : 1);
+				return new MockBatch(index);
+			};
+		};
+		try (TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 4, 3)) {
+			for (int i = 0; i < 20; i++) {
+				try (TrainingBatch batch = prefetcher.next()) {
+					assertEquals(i, batch.size);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSynchronous() {
+		Thread caller = Thread.currentThread();
+		AtomicInteger requested = new AtomicInteger();
+		TrainingBatchPrefetcher.BatchFactory factory = () -> {
+			int index = requested.getAndIncrement();
+			return () -> {
+				assertSame(caller, Thread.currentThread());
+				return new MockBatch(index);
+			};
+		};
+		try (TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 0, 2)) {
+			assertEquals(0, requested.get());
+			for (int i = 0; i < 3; i++) {
+				assertEquals(i, prefetcher.next().size);
+				assertEquals(i + 1, requested.get());
+			}
+		}
+		// no threads disable prefetching as well
+		try (TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 2, 0)) {
+			assertEquals(3, requested.get());
+			assertEquals(3, prefetcher.next().size);
+		}
+	}
+
+	@Test
+	public void testWorkerException() {
+		IllegalStateException failure = new IllegalStateException("no patch");
+		AtomicInteger requested = new AtomicInteger();
+		TrainingBatchPrefetcher.BatchFactory factory = () -> {
+			int index = requested.getAndIncrement();
+			return () -> {
+				if(index == 2) throw failure;
+				return new MockBatch(index);
+			};
+		};
+		try (TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 2, 2)) {
+			assertEquals(0, prefetcher.next().size);
+			assertEquals(1, prefetcher.next().size);
+			try {
+				prefetcher.next();
+				fail("the exception of the worker has to reach the training thread");
+			} catch (RuntimeException e) {
+				assertSame(failure, e.getCause());
+			}
+			assertEquals(3, prefetcher.next().size);
+		}
+	}
+
+	@Test
+	public void testClosePendingBatches() throws InterruptedException {
+		List<MockBatch> created = new CopyOnWriteArrayList<>();
+		// the initial three batches plus the one refilled when the first is taken
+		CountDownLatch prepared = new CountDownLatch(4);
+		AtomicInteger requested = new AtomicInteger();
+		TrainingBatchPrefetcher.BatchFactory factory = () -> {
+			int index = requested.getAndIncrement();
+			return () -> {
+				MockBatch batch = new MockBatch(index);
+				created.add(batch);
+				prepared.countDown();
+				return batch;
+			};
+		};
+		TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 3, 2);
+		TrainingBatch first = prefetcher.next();
+		assertTrue(prepared.await(10, TimeUnit.SECONDS));
+		prefetcher.close();
+		assertEquals(4, created.size());
+		for (MockBatch batch : created) {
+			if(batch == first) assertFalse("batches handed out are closed by the caller", batch.closed);
+			else assertTrue("pending batch " + batch.size + " closed", batch.closed);
+		}
+	}
+
+	@Test
+	public void testCloseWhilePreparing() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicInteger interrupted = new AtomicInteger();
+		TrainingBatchPrefetcher.BatchFactory factory = () -> () -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException e) {
+				interrupted.incrementAndGet();
+			}
+			return new MockBatch(0);
+		};
+		TrainingBatchPrefetcher prefetcher = new TrainingBatchPrefetcher(factory, 1, 1);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		prefetcher.close();
+		assertEquals(1, interrupted.get());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A batch without tensors, its size is the index it was requested with.
+	 */
+	private static class MockBatch extends TrainingBatch {
+
+		volatile boolean closed = false;
+
+		MockBatch(int index) {
+			super(index, null, null, null);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+import org.tensorflow.Tensor;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TrainingTensorCacheTest {
+
+	@Test
+	public void testConstantsAreReused() {
+		try (TrainingTensorCache cache = new TrainingTensorCache()) {
+			Tensor<Boolean> training = cache.getLearningPhase(true);
+			Tensor<Boolean> validation = cache.getLearningPhase(false);
+			assertTrue(training.booleanValue());
+			assertFalse(validation.booleanValue());
+			Tensor<Float> weights = cache.getWeights(4);
+			assertArrayEquals(new float[] {1, 1, 1, 1}, values(weights), 0);
+			Tensor<Float> lastWeights = cache.getWeights(3);
+			assertArrayEquals(new float[] {1, 1, 1}, values(lastWeights), 0);
+			for (int step = 0; step < 3; step++) {
+				assertSame(training, cache.getLearningPhase(true));
+				assertSame(validation, cache.getLearningPhase(false));
+				assertSame(weights, cache.getWeights(4));
+				assertSame(lastWeights, cache.getWeights(3));
+			}
+		}
+	}
+
+	@Test
+	public void testLearningRate() {
+		try (TrainingTensorCache cache = new TrainingTensorCache()) {
+			Tensor<Float> rate = cache.getLearningRate(0.0004f);
+			assertEquals(0.0004f, rate.floatValue(), 0);
+			assertSame(rate, cache.getLearningRate(0.0004f));
+			Tensor<Float> reduced = cache.getLearningRate(0.0002f);
+			assertNotSame(rate, reduced);
+			assertEquals(0.0002f, reduced.floatValue(), 0);
+			assertTrue("replaced learning rate closed", isClosed(rate));
+			assertSame(reduced, cache.getLearningRate(0.0002f));
+			assertFalse(isClosed(reduced));
+		}
+	}
+
+	@Test
+	public void testClose() {
+		TrainingTensorCache cache = new TrainingTensorCache();
+		Tensor<?>[] tensors = {
+				cache.getLearningPhase(true),
+				cache.getLearningPhase(false),
+				cache.getWeights(4),
+				cache.getWeights(3),
+				cache.getLearningRate(0.1f)
+		};
+		for (Tensor<?> tensor : tensors) {
+			assertFalse(isClosed(tensor));
+		}
+		cache.close();
+		for (int i = 0; i < tensors.length; i++) {
+			assertTrue("tensor " + i + " closed", isClosed(tensors[i]));
+		}
+	}
+
+	private static float[] values(Tensor<Float> tensor) {
+		FloatBuffer buffer = FloatBuffer.allocate(tensor.numElements());
+		tensor.writeTo(buffer);
+		return buffer.array();
+	}
+
+	private static boolean isClosed(Tensor<?> tensor) {
+		try {
+			tensor.numBytes();
+			return false;
+		} catch (NullPointerException e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class UniformNeighborManipulatorTest {
+
+	@Test
+	public void testWindowAtBorders() {
+		int radius = 2;
+		int[] dims = {9, 7};
+		float[] patch = new float[dims[0] * dims[1]];
+		for (int i = 0; i < patch.length; i++) {
+			patch[i] = i;
+		}
+		UniformNeighborManipulator manipulator = new UniformNeighborManipulator(radius);
+		SplittableRandom random = new SplittableRandom(1);
+		for (int y = 0; y < dims[1]; y++) {
+			for (int x = 0; x < dims[0]; x++) {
+				TreeSet<Integer> drawn = new TreeSet<>();
+				for (int i = 0; i < 2000; i++) {
+					drawn.add((int) manipulator.accept(patch, dims, new int[] {x, y}, random));
+				}
+				assertEquals("position " + x + "," + y, baselineWindow(patch.length, dims, new int[] {x, y}, radius), drawn);
+			}
+		}
+	}
+
+	@Test
+	public void testPatchSmallerThanWindow() {
+		int[] dims = {3, 2};
+		float[] patch = {0, 1, 2, 3, 4, 5};
+		UniformNeighborManipulator manipulator = new UniformNeighborManipulator(5);
+		SplittableRandom random = new SplittableRandom(1);
+		TreeSet<Integer> drawn = new TreeSet<>();
+		for (int i = 0; i < 1000; i++) {
+			drawn.add((int) manipulator.accept(patch, dims, new int[] {2, 1}, random));
+		}
+		assertEquals(6, drawn.size());
+		assertEquals(0, (int) drawn.first());
+		assertEquals(5, (int) drawn.last());
+	}
+
+	/**
+	 * Indices reachable by the former view based implementation: the window
+	 * starts at {@code position - radius}, is shifted back into the patch and
+	 * the first {@code 2 * radius + 1} positions are drawn.
+	 */
+	private static TreeSet<Integer> baselineWindow(int size, int[] dims, int[] position, int radius) {
+		int[] start = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			start[d] = Math.max(0, position[d] - radius);
+			int end = start[d] + radius * 2 + 1;
+			start[d] += Math.min(0, dims[d] - end);
+		}
+		TreeSet<Integer> res = new TreeSet<>();
+		for (int y = start[1]; y < start[1] + 2 * radius + 1; y++) {
+			for (int x = start[0]; x < start[0] + 2 * radius + 1; x++) {
+				int index = x + y * dims[0];
+				if(index >= size) throw new AssertionError();
+				res.add(index);
+			}
+		}
+		return res;
+	}
+}
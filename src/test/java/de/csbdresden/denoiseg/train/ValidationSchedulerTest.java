@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ValidationSchedulerTest {
+
+	@Test
+	public void testInterval() {
+		// the first and the last epoch are always validated
+		assertEquals(Arrays.asList(0, 3, 7, 9), validatedEpochs(new ValidationScheduler(4, 0, 0, 10, new Random(0)), 10));
+		assertEquals(Arrays.asList(0, 3, 4), validatedEpochs(new ValidationScheduler(4, 0, 0, 10, new Random(0)), 5));
+		assertEquals(Arrays.asList(0, 3), validatedEpochs(new ValidationScheduler(5, 0, 0, 10, new Random(0)), 4));
+		assertEquals(Arrays.asList(0, 1, 2, 3), validatedEpochs(new ValidationScheduler(1, 0, 0, 10, new Random(0)), 4));
+		assertEquals(Arrays.asList(0, 1, 2), validatedEpochs(new ValidationScheduler(0, 0, 0, 10, new Random(0)), 3));
+		assertEquals(Arrays.asList(0), validatedEpochs(new ValidationScheduler(5, 0, 0, 10, new Random(0)), 1));
+	}
+
+	@Test
+	public void testStoppedEarly() {
+		ValidationScheduler scheduler = new ValidationScheduler(4, 0, 0, 10, new Random(0));
+		assertFalse(scheduler.validate(5, false));
+		// training stopped after this epoch
+		assertTrue(scheduler.validate(5, true));
+	}
+
+	@Test
+	public void testBatchSubset() {
+		assertArrayEquals(new int[] {0, 1, 2, 3, 4}, new ValidationScheduler(1, 0, 0, 5, new Random(0)).getBatches());
+		assertArrayEquals(new int[] {0, 1, 2, 3, 4}, new ValidationScheduler(1, 7, 0, 5, new Random(0)).getBatches());
+		int[] subset = new ValidationScheduler(1, 4, 0, 20, new Random(3)).getBatches();
+		assertEquals(4, subset.length);
+		for (int i = 0; i < subset.length; i++) {
+			assertTrue(subset[i] >= 0 && subset[i] < 20);
+			if(i > 0) assertTrue("ascending and distinct", subset[i] > subset[i - 1]);
+		}
+		// the same subset for the same seed
+		assertArrayEquals(subset, new ValidationScheduler(1, 4, 0, 20, new Random(3)).getBatches());
+	}
+
+	@Test
+	public void testTimeBudget() {
+		long now = System.nanoTime();
+		long twoSecondsAgo = now - TimeUnit.SECONDS.toNanos(2);
+		ValidationScheduler scheduler = new ValidationScheduler(1, 0, 1000, 10, new Random(0));
+		assertTrue(scheduler.outOfTime(twoSecondsAgo, 1));
+		// at least one batch is validated
+		assertFalse(scheduler.outOfTime(twoSecondsAgo, 0));
+		assertFalse(scheduler.outOfTime(now, 3));
+		// no budget
+		assertFalse(new ValidationScheduler(1, 0, 0, 10, new Random(0)).outOfTime(twoSecondsAgo, 5));
+		assertFalse(new ValidationScheduler(1, 0, -1, 10, new Random(0)).outOfTime(twoSecondsAgo, 5));
+	}
+
+	private static List<Integer> validatedEpochs(ValidationScheduler scheduler, int numEpochs) {
+		List<Integer> res = new ArrayList<>();
+		for (int epoch = 0; epoch < numEpochs; epoch++) {
+			if(scheduler.validate(epoch, epoch == numEpochs - 1)) res.add(epoch);
+		}
+		return res;
+	}
+}
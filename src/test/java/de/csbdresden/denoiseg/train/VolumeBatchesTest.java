@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Batches of 3D patches as the data pipeline prepares them for a 3D graph.
+ * No 3D graph is bundled, so 3D training itself is not tested.
+ */
+public class VolumeBatchesTest {
+
+	@Test
+	public void testVolumeBatches() {
+		Random random = new Random(0);
+		RandomAccessibleInterval<FloatType> raw = ArrayImgs.floats(64, 64, 32);
+		Views.flatIterable(raw).forEach(pixel -> pixel.set(random.nextFloat()));
+		ArrayImg<UnsignedByteType, ByteArray> classes = ArrayImgs.unsignedBytes(64, 64, 32);
+		classes.forEach(pixel -> pixel.set(random.nextInt(3)));
+		TrainingDataCollection<FloatType> tiles = DenoiSegDataGenerator.createTiles(raw, new OneHotLabels(classes), 3, 16, 0, null);
+		assertEquals(4, tiles.size());
+		assertArrayEquals(new long[] {32, 32, 32}, Intervals.dimensionsAsLongArray(tiles.get(0).input));
+		TrainingDataCollection<FloatType> items = new TrainingDataCollection<>();
+		for (TrainingData<FloatType> tile : tiles) {
+			// channel and batch dimensions as added by the InputHandler
+			RandomAccessibleInterval<FloatType> segment = Views.addDimension(tile.outSegment, 0, 0);
+			items.add(new TrainingData<>(Views.addDimension(Views.addDimension(tile.input, 0, 0), 0, 0),
+					Views.moveAxis(segment, segment.numDimensions() - 1, segment.numDimensions() - 2)));
+		}
+		try (DenoiSegDataWrapper<FloatType> wrapper = new DenoiSegDataWrapper<>(items, 4, 1.6,
+				new FinalDimensions(16, 16, 16), new UniformNeighborManipulator(2))) {
+			wrapper.setSeed(1);
+			wrapper.setRandomAugmentation(true);
+			try (TrainingBatch batch = wrapper.getBatch(0)) {
+				assertArrayEquals(new long[] {4, 16, 16, 16, 1}, batch.input.shape());
+				assertArrayEquals(new long[] {4, 16, 16, 16, 2}, batch.outDenoise.shape());
+				assertArrayEquals(new long[] {4, 16, 16, 16, 3}, batch.outSegment.shape());
+				FloatBuffer denoise = FloatBuffer.allocate(4 * 4096 * 2);
+				batch.outDenoise.writeTo(denoise);
+				// one blind spot per 4x4x4 box, the n-th root of 100 / 1.6 pixels per blind spot
+				for (int patch = 0; patch < 4; patch++) {
+					int masked = 0;
+					for (int i = 0; i < 4096; i++) {
+						if(denoise.get(2 * (patch * 4096 + i) + 1) == 1) masked++;
+					}
+					assertEquals("patch " + patch, 64, masked);
+				}
+				FloatBuffer segment = FloatBuffer.allocate(4 * 4096 * 3);
+				batch.outSegment.writeTo(segment);
+				for (int i = 0; i < 4 * 4096; i++) {
+					assertEquals(1, segment.get(3 * i) + segment.get(3 * i + 1) + segment.get(3 * i + 2), 0);
+				}
+			}
+		}
+	}
+}
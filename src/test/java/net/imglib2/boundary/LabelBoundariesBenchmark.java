@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.boundary;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LabelBoundaries} with iterating {@link IntTypeBoundary} on
+ * a labeling of square blobs.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class LabelBoundariesBenchmark
+{
+
+	@Param( { "1024x1024", "512x512x32" } )
+	public String shape;
+
+	private ArrayImg< IntType, IntArray > labeling;
+
+	@Setup
+	public void setup()
+	{
+		final String[] parts = shape.split( "x" );
+		final long[] dims = new long[ parts.length ];
+		for ( int d = 0; d < dims.length; ++d )
+			dims[ d ] = Long.parseLong( parts[ d ] );
+		labeling = ArrayImgs.ints( dims );
+		final Cursor< IntType > cursor = labeling.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final int bx = cursor.getIntPosition( 0 ) / 24;
+			final int by = cursor.getIntPosition( 1 ) / 24;
+			cursor.get().set( ( bx + by ) % 3 == 0 ? 0 : bx * 1000 + by );
+		}
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< UnsignedByteType > labelBoundaries()
+	{
+		return LabelBoundaries.compute( labeling, null );
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< UnsignedByteType > labelBoundariesParallel()
+	{
+		return LabelBoundaries.compute( labeling, ForkJoinPool.commonPool() );
+	}
+
+	@Benchmark
+	public long boundaryRandomAccess()
+	{
+		long sum = 0;
+		for ( final IntType pixel : Views.flatIterable( new IntTypeBoundary<>( labeling ) ) )
+			sum += pixel.get();
+		return sum;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options options = new OptionsBuilder()
+				.include( LabelBoundariesBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( options ).run();
+	}
+}
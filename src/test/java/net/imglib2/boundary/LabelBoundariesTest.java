@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.boundary;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.ConstantUtils;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LabelBoundariesTest
+{
+
+	private static final long[][] shapes = { { 37, 29 }, { 2, 17 }, { 23, 2 }, { 2, 2 }, { 19, 13, 7 }, { 11, 2, 5 }, { 9, 8, 2 } };
+
+	@Test
+	public void testRandomLabelings()
+	{
+		final Random random = new Random( 11 );
+		for ( final long[] shape : shapes )
+			for ( final int blockSize : new int[] { 1, 2, 5 } )
+				assertSameAsBoundary( randomLabeling( shape, blockSize, random ) );
+	}
+
+	/**
+	 * {@link IntTypeBoundary} can not mirror dimensions of size one, the
+	 * neighbours along them are the center pixel itself, so the boundary is
+	 * the boundary of the slice without that dimension.
+	 */
+	@Test
+	public void testSingletonDimensions()
+	{
+		final Random random = new Random( 19 );
+		for ( final long[] shape : new long[][] { { 1, 17 }, { 23, 1 }, { 11, 1, 5 }, { 9, 8, 1 } } )
+		{
+			final ArrayImg< IntType, IntArray > labeling = randomLabeling( shape, 2, random );
+			int singleton = 0;
+			while ( shape[ singleton ] != 1 )
+				++singleton;
+			final Cursor< IntType > expected = Views.flatIterable( new IntTypeBoundary<>( Views.hyperSlice( labeling, singleton, 0 ) ) ).cursor();
+			for ( final UnsignedByteType pixel : Views.flatIterable( LabelBoundaries.compute( labeling, null ) ) )
+				assertEquals( "labeling " + Intervals.toString( labeling ), expected.next().get(), pixel.get() );
+		}
+	}
+
+	@Test
+	public void testOtherTypesAndViews()
+	{
+		final Random random = new Random( 13 );
+		final ArrayImg< IntType, IntArray > labeling = randomLabeling( new long[] { 21, 17, 4 }, 3, random );
+		assertSameAsBoundary( Views.translate( labeling, 5, -3, 2 ) );
+		assertSameAsBoundary( Views.interval( labeling, new long[] { 2, 3, 1 }, new long[] { 15, 16, 3 } ) );
+		assertSameAsBoundary( copy( labeling, ArrayImgs.shorts( 21, 17, 4 ) ) );
+		assertSameAsBoundary( copy( labeling, ArrayImgs.unsignedShorts( 21, 17, 4 ) ) );
+		assertSameAsBoundary( copy( labeling, ArrayImgs.unsignedBytes( 21, 17, 4 ) ) );
+	}
+
+	@Test
+	public void testFlatLabels()
+	{
+		final Random random = new Random( 17 );
+		final ArrayImg< IntType, IntArray > labeling = randomLabeling( new long[] { 19, 13, 7 }, 2, random );
+		final int[] labels = labeling.update( null ).getCurrentStorageArray();
+		final int[] dims = { 19, 13, 7 };
+		final byte[] expected = new byte[ labels.length ];
+		final Cursor< UnsignedByteType > cursor = Views.flatIterable( LabelBoundaries.compute( labeling, null ) ).cursor();
+		for ( int i = 0; i < expected.length; ++i )
+			expected[ i ] = cursor.next().getByte();
+		final byte[] mask = new byte[ labels.length ];
+		LabelBoundaries.compute( labels, dims, mask, null );
+		assertArrayEquals( expected, mask );
+		LabelBoundaries.compute( labels, dims, mask, ForkJoinPool.commonPool() );
+		assertArrayEquals( expected, mask );
+	}
+
+	/**
+	 * The scan indexes with {@code int}, larger labelings have to be rejected
+	 * instead of overflowing.
+	 */
+	@Test( expected = IllegalArgumentException.class )
+	public void testRejectsOversizedLabeling()
+	{
+		// 2^32 pixels, never allocated
+		final RandomAccessibleInterval< IntType > labeling = Views.interval(
+				ConstantUtils.constantRandomAccessible( new IntType( 1 ), 2 ), new FinalInterval( 1 << 16, 1 << 16 ) );
+		LabelBoundaries.compute( labeling, null );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testRejectsFlatLabelsOfOtherSize()
+	{
+		LabelBoundaries.compute( new int[ 15 ], new int[] { 4, 4 }, new byte[ 16 ], null );
+	}
+
+	private static < T extends IntegerType< T > > void assertSameAsBoundary( final RandomAccessibleInterval< T > labeling )
+	{
+		final String name = "labeling " + Intervals.toString( labeling );
+		final Cursor< IntType > expected = Views.flatIterable( new IntTypeBoundary<>( labeling ) ).cursor();
+		final Cursor< UnsignedByteType > sequential = Views.flatIterable( LabelBoundaries.compute( labeling, null ) ).cursor();
+		final ForkJoinPool pool = new ForkJoinPool( 3 );
+		try
+		{
+			final RandomAccessibleInterval< UnsignedByteType > parallel = LabelBoundaries.compute( labeling, pool );
+			assertEquals( name, Intervals.toString( labeling ), Intervals.toString( parallel ) );
+			final Cursor< UnsignedByteType > parallelCursor = Views.flatIterable( parallel ).cursor();
+			while ( expected.hasNext() )
+			{
+				final int value = expected.next().get();
+				assertEquals( name + " at " + Util.printCoordinates( expected ), value, sequential.next().get() );
+				assertEquals( name + " at " + Util.printCoordinates( expected ), value, parallelCursor.next().get() );
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Blocks of random labels, a third of the blocks is background.
+	 */
+	private static ArrayImg< IntType, IntArray > randomLabeling( final long[] shape, final int blockSize, final Random random )
+	{
+		final ArrayImg< IntType, IntArray > labeling = ArrayImgs.ints( shape );
+		final int[] blockLabels = new int[ 4096 ];
+		for ( int i = 0; i < blockLabels.length; ++i )
+			blockLabels[ i ] = random.nextInt( 3 ) == 0 ? 0 : 1 + random.nextInt( 5 );
+		final Cursor< IntType > cursor = labeling.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			int block = 0;
+			for ( int d = 0; d < shape.length; ++d )
+				block = block * 16 + cursor.getIntPosition( d ) / blockSize;
+			cursor.get().set( blockLabels[ Math.floorMod( block * 31, blockLabels.length ) ] );
+		}
+		return labeling;
+	}
+
+	private static < T extends IntegerType< T > & NativeType< T > > ArrayImg< T, ? > copy( final RandomAccessibleInterval< IntType > source, final ArrayImg< T, ? > target )
+	{
+		final Cursor< IntType > in = Views.flatIterable( source ).cursor();
+		for ( final T pixel : target )
+			pixel.setInteger( in.next().get() );
+		return target;
+	}
+}